@@ -0,0 +1,84 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryBookingRepositoryBenchmark {
+
+    // the last nights of the window are kept free for the reservation moved by the update benchmark
+    private static final int FILLED_NIGHTS = Constants.BOOKING_WINDOW_DAYS - 6;
+    private static final long MOVING_RESERVATION_ID = Long.MAX_VALUE;
+
+    @Param({"0", "50", "90"})
+    public int fillPercent;
+
+    private InMemoryBookingRepository bookingRepository;
+    private Random random;
+    private boolean moved;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bookingRepository = new InMemoryBookingRepository();
+        random = new Random(42);
+        for (int offset = 1; offset < FILLED_NIGHTS; offset++) {
+            if (random.nextInt(100) < fillPercent) {
+                bookingRepository.save(booking(offset, offset, offset + 1));
+            }
+        }
+        bookingRepository.save(booking(MOVING_RESERVATION_ID, FILLED_NIGHTS, FILLED_NIGHTS + 2));
+    }
+
+    @Benchmark
+    public boolean isRangeAvailable() {
+        int arrival = 1 + random.nextInt(FILLED_NIGHTS - Constants.MAXIMUM_DAYS_ALLOWED_FOR_A_RESERVATION);
+        return bookingRepository.isRangeAvailable(night(arrival), night(arrival + Constants.MAXIMUM_DAYS_ALLOWED_FOR_A_RESERVATION));
+    }
+
+    @Benchmark
+    public List<LocalDate> findAvailabilitiesBetween() {
+        return bookingRepository.findAvailabilitiesBetween(night(1), night(Constants.BOOKING_WINDOW_DAYS)).collectList().block();
+    }
+
+    @Benchmark
+    public Booking update() {
+        moved = !moved;
+        int arrival = moved ? FILLED_NIGHTS + 2 : FILLED_NIGHTS;
+        return bookingRepository.update(booking(MOVING_RESERVATION_ID, arrival, arrival + 2));
+    }
+
+    private static Booking booking(long reservationId, int arrivalOffset, int departureOffset) {
+        return Booking.builder()
+                .reservationId(reservationId)
+                .arrivalDate(night(arrivalOffset))
+                .departureDate(night(departureOffset))
+                .build();
+    }
+
+    private static LocalDateTime night(int offset) {
+        return LocalDateTime.of(LocalDate.now().plusDays(offset), Constants.DEFAULT_CHECK_IN_TIME);
+    }
+}
@@ -0,0 +1,140 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ReservationStore;
+import com.upgrade.bookingservice.util.Constants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerReservationServiceBenchmark {
+
+    @Param({"locks", "single-writer"})
+    private String writerMode;
+
+    private BookingCommandLoop commandLoop;
+
+    private CustomerReservationService customerReservationService;
+
+    @Setup
+    public void setUp() {
+        AtomicLong sequence = new AtomicLong();
+        ReservationStore reservationStore = new ReservationStore() {
+            @Override
+            public Mono<CustomerReservation> findById(Long reservationId) {
+                return Mono.empty();
+            }
+
+            @Override
+            public Mono<CustomerReservation> save(CustomerReservation reservation) {
+                reservation.setId(sequence.incrementAndGet());
+                return Mono.just(reservation);
+            }
+
+            @Override
+            public Mono<List<CustomerReservation>> saveAll(List<CustomerReservation> reservations) {
+                reservations.forEach(reservation -> reservation.setId(sequence.incrementAndGet()));
+                return Mono.just(reservations);
+            }
+
+            @Override
+            public Flux<CustomerReservation> findCompletedDepartingAfter(LocalDateTime departureDate) {
+                return Flux.empty();
+            }
+        };
+        ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+        BookingShards bookingShards = new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, new StubBookingRepository()));
+        commandLoop = writerMode.equals("single-writer") ? new BookingCommandLoop(8192, 256, reservationMetrics) : null;
+        customerReservationService = new CustomerReservationService(new CustomerBookingService(bookingShards, reservationMetrics, Optional.ofNullable(commandLoop)), reservationStore,
+                new ReservationLocks(bookingShards, reservationMetrics, Optional.ofNullable(commandLoop)), reservationMetrics);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if (commandLoop != null) {
+            commandLoop.close();
+        }
+    }
+
+    @Benchmark
+    public CustomerReservation create() {
+        return customerReservationService.create(CustomerReservation.builder()
+                .fullName("John Doe")
+                .email("john@doe.com")
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build())
+                .block();
+    }
+
+    // accepts every booking so that only the service pipeline is measured
+    private static class StubBookingRepository implements BookingRepository {
+
+        @Override
+        public Booking save(Booking booking) {
+            return booking;
+        }
+
+        @Override
+        public Booking update(Booking booking) {
+            return booking;
+        }
+
+        @Override
+        public void cancel(Booking booking) {
+        }
+
+        @Override
+        public Booking confirm(Booking claim, Long reservationId) {
+            return Booking.builder()
+                    .arrivalDate(claim.getArrivalDate())
+                    .departureDate(claim.getDepartureDate())
+                    .reservationId(reservationId)
+                    .build();
+        }
+
+        @Override
+        public Flux<LocalDate> findAvailabilitiesBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+            return Flux.empty();
+        }
+
+        @Override
+        public boolean contains(LocalDateTime bookingDate) {
+            return false;
+        }
+
+        @Override
+        public boolean isRangeAvailable(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.upgrade.bookingservice.validator;
+
+import com.upgrade.bookingservice.controller.dto.ReservationDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservationValidatorBenchmark {
+
+    private final ReservationValidator reservationValidator = new ReservationValidator();
+
+    private final ReservationDTO validReservation = new ReservationDTO(LocalDate.now().plusDays(2), LocalDate.now().plusDays(4));
+    private final ReservationDTO invalidReservation = new ReservationDTO(LocalDate.now().plusMonths(2), LocalDate.now().plusDays(1));
+
+    @Benchmark
+    public Errors validateValidReservation() {
+        Errors errors = new BeanPropertyBindingResult(validReservation, "reservation");
+        reservationValidator.validate(validReservation, errors);
+        return errors;
+    }
+
+    @Benchmark
+    public Errors validateInvalidReservation() {
+        Errors errors = new BeanPropertyBindingResult(invalidReservation, "reservation");
+        reservationValidator.validate(invalidReservation, errors);
+        return errors;
+    }
+}
@@ -0,0 +1,57 @@
+package com.upgrade.bookingservice.config;
+
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ConcurrentBookingRepository;
+import com.upgrade.bookingservice.repository.DayIndexedBookingRepository;
+import com.upgrade.bookingservice.repository.InMemoryBookingRepository;
+import com.upgrade.bookingservice.repository.JournaledBookingRepository;
+import com.upgrade.bookingservice.repository.PooledBookingRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+public class BookingShardsConfiguration {
+
+    // booking.units lists the identical units of each site in site order, sites left out have a single unit;
+    // sites with several units count them per night whatever the repository type
+    @Bean(destroyMethod = "close")
+    public BookingShards bookingShards(@Value("${booking.sites:1}") int sites,
+                                       @Value("${booking.repository.type:concurrent}") String type,
+                                       @Value("${booking.journal.directory:data/journal}") String journalDirectory,
+                                       @Value("${booking.journal.capacity:1048576}") int journalCapacity,
+                                       @Value("${booking.units:}") int[] units) {
+        if (sites < 1) {
+            throw new IllegalStateException("booking.sites should be at least 1");
+        }
+        Map<Long, BookingRepository> shards = new HashMap<>();
+        for (long siteId = 1; siteId <= sites; siteId++) {
+            int siteUnits = siteId <= units.length ? units[(int) siteId - 1] : 1;
+            shards.put(siteId, siteUnits > 1
+                    ? new PooledBookingRepository(siteUnits)
+                    : createShard(type, Paths.get(journalDirectory).resolve("site-" + siteId), journalCapacity));
+        }
+        return new BookingShards(shards);
+    }
+
+    private static BookingRepository createShard(String type, Path journalDirectory, int journalCapacity) {
+        switch (type) {
+            case "concurrent":
+                return new ConcurrentBookingRepository();
+            case "day-indexed":
+                return new DayIndexedBookingRepository();
+            case "in-memory":
+                return new InMemoryBookingRepository();
+            case "journaled":
+                return new JournaledBookingRepository(journalDirectory, journalCapacity);
+            default:
+                throw new IllegalStateException(String.format("Unknown booking.repository.type %s", type));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.upgrade.bookingservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+@EnableScheduling
+public class SchedulerConfiguration {
+
+    @Bean(destroyMethod = "dispose")
+    @Profile("!reactive")
+    public Scheduler persistenceScheduler(@Value("${booking.persistence.pool-size:10}") int poolSize) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "persistence-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Schedulers.fromExecutorService(Executors.newFixedThreadPool(poolSize, threadFactory));
+    }
+}
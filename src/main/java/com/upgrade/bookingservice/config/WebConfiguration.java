@@ -0,0 +1,32 @@
+package com.upgrade.bookingservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.bookingservice.util.Constants;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.util.Collections;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebConfiguration implements WebFluxConfigurer {
+
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().encoder(ndjsonEncoder(objectMapper));
+    }
+
+    // writes one json document per line and flushes after each element instead of buffering a json array
+    public static Jackson2JsonEncoder ndjsonEncoder(ObjectMapper objectMapper) {
+        MediaType ndjson = MediaType.parseMediaType(Constants.APPLICATION_NDJSON_VALUE);
+        Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, ndjson);
+        encoder.setStreamingMediaTypes(Collections.singletonList(ndjson));
+        return encoder;
+    }
+}
@@ -1,7 +1,9 @@
 package com.upgrade.bookingservice.controller;
 
 import com.upgrade.bookingservice.controller.dto.ErrorDTO;
+import com.upgrade.bookingservice.exception.ConflictException;
 import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.PreconditionFailedException;
 import com.upgrade.bookingservice.exception.UnprocessableEntityException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -30,6 +32,18 @@ public class ExceptionController {
         return new ResponseEntity<>(error, HttpStatus.UNPROCESSABLE_ENTITY);
     }
 
+    @ExceptionHandler(ConflictException.class)
+    public ResponseEntity<ErrorDTO> handleConflictException(ConflictException exception, ServerWebExchange exchange) {
+        ErrorDTO error = createErrorDTO(exchange.getRequest(), exception, HttpStatus.CONFLICT);
+        return new ResponseEntity<>(error, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ErrorDTO> handlePreconditionFailedException(PreconditionFailedException exception, ServerWebExchange exchange) {
+        ErrorDTO error = createErrorDTO(exchange.getRequest(), exception, HttpStatus.PRECONDITION_FAILED);
+        return new ResponseEntity<>(error, HttpStatus.PRECONDITION_FAILED);
+    }
+
     private ErrorDTO createErrorDTO(ServerHttpRequest request, Exception exception, HttpStatus httpStatus) {
         return ErrorDTO.builder()
                 .timestamp(new Date())
@@ -1,6 +1,7 @@
 package com.upgrade.bookingservice.controller;
 
 import com.upgrade.bookingservice.controller.dto.CustomerReservationResponse;
+import com.upgrade.bookingservice.controller.dto.ReservationBatchItemResponse;
 import com.upgrade.bookingservice.controller.dto.ReservationRequest;
 import com.upgrade.bookingservice.controller.dto.UpdateReservationRequest;
 import io.swagger.annotations.*;
@@ -10,6 +11,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
+import java.util.List;
 
 @Api(value = "Reservations", description = "Reservations API", tags = {"reservation"})
 public interface ReservationApi {
@@ -35,8 +37,22 @@ public interface ReservationApi {
     )
     @ApiResponses(value = {
             @ApiResponse(code = 201, message = "created", response = CustomerReservationResponse.class),
+            @ApiResponse(code = 400, message = "bad request"),
+            @ApiResponse(code = 404, message = "site not found"),
+            @ApiResponse(code = 422, message = "unprocessable entity") })
+    Mono<ResponseEntity<CustomerReservationResponse>> createReservation(@ApiParam(name = "reservationRequest", value = "reservation request",required=true) ReservationRequest reservationRequest, @ApiParam(value = "key under which retries of this request are answered with its first outcome") String idempotencyKey);
+
+    @ApiOperation(
+            value = "Create reservations in a batch",
+            nickname = "create reservations in a batch",
+            response = ReservationBatchItemResponse.class,
+            responseContainer = "List",
+            tags={"reservation"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok, with a status of 201, 400, 404 or 422 per item", response = ReservationBatchItemResponse.class, responseContainer = "List"),
             @ApiResponse(code = 400, message = "bad request") })
-    Mono<ResponseEntity<CustomerReservationResponse>> createReservation(@ApiParam(name = "reservationRequest", value = "reservation request",required=true) ReservationRequest reservationRequest);
+    Mono<ResponseEntity<List<ReservationBatchItemResponse>>> createReservations(@ApiParam(name = "reservationRequests", value = "reservation requests", required = true) List<ReservationRequest> reservationRequests);
 
     @ApiOperation(
             value = "Update a reservation",
@@ -46,8 +62,10 @@ public interface ReservationApi {
     )
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "ok", response = CustomerReservationResponse.class),
-            @ApiResponse(code = 400, message = "bad request") })
-    Mono<ResponseEntity<CustomerReservationResponse>> updateReservation(@ApiParam(value = "reservation id",required=true) @PathVariable("reservationId") Long reservationId, @ApiParam(value = "update reservation request",required=true)@Valid @RequestBody UpdateReservationRequest updateReservationRequest);
+            @ApiResponse(code = 400, message = "bad request"),
+            @ApiResponse(code = 409, message = "modified concurrently, retry"),
+            @ApiResponse(code = 412, message = "reservation no longer at the If-Match version") })
+    Mono<ResponseEntity<CustomerReservationResponse>> updateReservation(@ApiParam(value = "reservation id",required=true) @PathVariable("reservationId") Long reservationId, @ApiParam(value = "update reservation request",required=true)@Valid @RequestBody UpdateReservationRequest updateReservationRequest, @ApiParam(value = "ETag of the reservation the update is based on") String ifMatch);
 
     @ApiOperation(
             value = "Cancel a reservation",
@@ -2,52 +2,126 @@ package com.upgrade.bookingservice.controller;
 
 import com.upgrade.bookingservice.controller.dto.ReservationRequest;
 import com.upgrade.bookingservice.controller.dto.CustomerReservationResponse;
+import com.upgrade.bookingservice.controller.dto.ReservationBatchItemResponse;
 import com.upgrade.bookingservice.controller.dto.UpdateReservationRequest;
 import com.upgrade.bookingservice.converter.ReservationConverter;
+import com.upgrade.bookingservice.exception.BadRequestException;
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.PreconditionFailedException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.ReservationOutcome;
+import com.upgrade.bookingservice.service.IdempotencyCache;
 import com.upgrade.bookingservice.service.ReservationService;
+import com.upgrade.bookingservice.util.Constants;
 import com.upgrade.bookingservice.validator.ReservationValidator;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping(value = "/reservations")
 @RequiredArgsConstructor
 public class ReservationController implements ReservationApi {
 
+    private static final Pattern VERSION_TAG = Pattern.compile("\"(\\d{1,18})\"");
+
     private final ReservationValidator reservationValidator;
     private final ReservationService reservationService;
     private final ReservationConverter reservationConverter;
+    private final IdempotencyCache idempotencyCache;
+    private final Validator beanValidator;
 
     @Override
     @GetMapping("/{reservationId}")
     public Mono<ResponseEntity<CustomerReservationResponse>> findReservationById(@PathVariable("reservationId") Long reservationId) {
         return reservationService.findById(reservationId)
                 .map(reservationConverter::convert)
-                .map(ResponseEntity::ok);
+                .map(reservation -> tagged(ResponseEntity.ok(), reservation));
     }
 
     @Override
     @PostMapping
-    public Mono<ResponseEntity<CustomerReservationResponse>> createReservation(@Valid @RequestBody ReservationRequest reservationRequest) {
-        return Mono.just(reservationConverter.create(reservationRequest))
-                .flatMap(reservationService::create)
+    public Mono<ResponseEntity<CustomerReservationResponse>> createReservation(@Valid @RequestBody ReservationRequest reservationRequest,
+                                                                               @RequestHeader(value = Constants.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Mono<CustomerReservation> created;
+        if (idempotencyKey == null) {
+            created = reservationService.create(reservationConverter.create(reservationRequest));
+        } else if (idempotencyKey.isEmpty() || idempotencyKey.length() > Constants.IDEMPOTENCY_KEY_MAX_LENGTH) {
+            return Mono.error(new BadRequestException(String.format("%s must have between 1 and %d characters",
+                    Constants.IDEMPOTENCY_KEY_HEADER, Constants.IDEMPOTENCY_KEY_MAX_LENGTH)));
+        } else {
+            created = idempotencyCache.execute(idempotencyKey, fingerprint(reservationRequest),
+                    () -> reservationService.create(reservationConverter.create(reservationRequest)));
+        }
+        return created
                 .map(reservationConverter::convert)
-                .map(reservation -> new ResponseEntity<>(reservation, HttpStatus.CREATED));
+                .map(reservation -> tagged(ResponseEntity.status(HttpStatus.CREATED), reservation));
+    }
+
+    // invalid items are answered with 400 and kept out of the batch, the others with 201, 404 or 422
+    @Override
+    @PostMapping("/batch")
+    public Mono<ResponseEntity<List<ReservationBatchItemResponse>>> createReservations(@RequestBody List<ReservationRequest> reservationRequests) {
+        if (reservationRequests.isEmpty() || reservationRequests.size() > Constants.MAXIMUM_RESERVATIONS_PER_BATCH) {
+            return Mono.error(new BadRequestException(String.format("A batch must hold between 1 and %d reservations",
+                    Constants.MAXIMUM_RESERVATIONS_PER_BATCH)));
+        }
+        ReservationBatchItemResponse[] items = new ReservationBatchItemResponse[reservationRequests.size()];
+        List<Integer> accepted = new ArrayList<>();
+        for (int i = 0; i < reservationRequests.size(); i++) {
+            List<String> errors = validate(reservationRequests.get(i));
+            if (errors.isEmpty()) {
+                accepted.add(i);
+            } else {
+                items[i] = ReservationBatchItemResponse.builder()
+                        .index(i)
+                        .status(HttpStatus.BAD_REQUEST.value())
+                        .message(String.join("; ", errors))
+                        .build();
+            }
+        }
+        return reservationService.createAll(accepted.stream()
+                .map(i -> reservationConverter.create(reservationRequests.get(i)))
+                .collect(Collectors.toList()))
+                .map(outcomes -> {
+                    for (int i = 0; i < outcomes.size(); i++) {
+                        items[accepted.get(i)] = convert(accepted.get(i), outcomes.get(i));
+                    }
+                    return ResponseEntity.ok(Arrays.asList(items));
+                });
     }
 
     @Override
     @PutMapping("/{reservationId}")
-    public Mono<ResponseEntity<CustomerReservationResponse>> updateReservation(@PathVariable("reservationId") Long reservationId, @Valid @RequestBody UpdateReservationRequest updateReservationRequest) {
-        return Mono.just(reservationConverter.update(reservationId, updateReservationRequest))
+    public Mono<ResponseEntity<CustomerReservationResponse>> updateReservation(@PathVariable("reservationId") Long reservationId, @Valid @RequestBody UpdateReservationRequest updateReservationRequest,
+                                                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return Mono.fromCallable(() -> expectedVersion(ifMatch))
+                .map(version -> {
+                    CustomerReservation reservationUpdate = reservationConverter.update(reservationId, updateReservationRequest);
+                    version.ifPresent(reservationUpdate::setVersion);
+                    return reservationUpdate;
+                })
                 .flatMap(reservationService::update)
                 .map(reservationConverter::convert)
-                .map(ResponseEntity::ok);
+                .map(reservation -> tagged(ResponseEntity.ok(), reservation));
     }
 
     @Override
@@ -55,7 +129,66 @@ public class ReservationController implements ReservationApi {
     public Mono<ResponseEntity<CustomerReservationResponse>> cancelReservation(@PathVariable("reservationId") Long reservationId) {
         return reservationService.cancel(reservationId)
                 .map(reservationConverter::convert)
-                .map(ResponseEntity::ok);
+                .map(reservation -> tagged(ResponseEntity.ok(), reservation));
+    }
+
+    // what @Valid and the binder check on a single create, item by item so that a bad item does not fail the batch
+    private List<String> validate(ReservationRequest reservationRequest) {
+        if (reservationRequest == null) {
+            return Collections.singletonList("Reservation cannot be missing");
+        }
+        List<String> errors = beanValidator.validate(reservationRequest).stream()
+                .map(ConstraintViolation::getMessage)
+                .collect(Collectors.toCollection(ArrayList::new));
+        // the reservation rules need both dates
+        if (errors.isEmpty()) {
+            Errors reservationErrors = new BeanPropertyBindingResult(reservationRequest, "reservationRequest");
+            reservationValidator.validate(reservationRequest, reservationErrors);
+            reservationErrors.getAllErrors().forEach(error -> errors.add(error.getDefaultMessage() != null ? error.getDefaultMessage() : error.getCode()));
+        }
+        return errors;
+    }
+
+    private ReservationBatchItemResponse convert(int index, ReservationOutcome outcome) {
+        if (outcome.isCreated()) {
+            return ReservationBatchItemResponse.builder()
+                    .index(index)
+                    .status(HttpStatus.CREATED.value())
+                    .reservation(reservationConverter.convert(outcome.getReservation()))
+                    .build();
+        }
+        HttpStatus status = outcome.getRejection() instanceof NotFoundException ? HttpStatus.NOT_FOUND : HttpStatus.UNPROCESSABLE_ENTITY;
+        return ReservationBatchItemResponse.builder()
+                .index(index)
+                .status(status.value())
+                .message(outcome.getRejection().getMessage())
+                .build();
+    }
+
+    // the version of a reservation is its strong tag
+    private static ResponseEntity<CustomerReservationResponse> tagged(ResponseEntity.BodyBuilder response, CustomerReservationResponse reservation) {
+        if (reservation.getVersion() != null) {
+            response.eTag(String.format("\"%d\"", reservation.getVersion()));
+        }
+        return response.body(reservation);
+    }
+
+    // If-Match compares strong tags only: a weak or foreign tag can never match a version, and * matches any
+    private static Optional<Long> expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return Optional.empty();
+        }
+        Matcher version = VERSION_TAG.matcher(ifMatch.trim());
+        if (!version.matches()) {
+            throw new PreconditionFailedException(String.format("%s %s matches no version of the reservation", HttpHeaders.IF_MATCH, ifMatch));
+        }
+        return Optional.of(Long.valueOf(version.group(1)));
+    }
+
+    // ReservationRequest equality ignores the dates it inherits
+    private static List<Object> fingerprint(ReservationRequest reservationRequest) {
+        return Arrays.asList(reservationRequest.getSiteId(), reservationRequest.getFullName(), reservationRequest.getEmail(),
+                reservationRequest.getArrivalDate(), reservationRequest.getDepartureDate());
     }
 
     @InitBinder(value = {"reservationRequest", "updateReservationRequest"})
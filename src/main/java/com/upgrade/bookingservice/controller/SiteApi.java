@@ -1,11 +1,18 @@
 package com.upgrade.bookingservice.controller;
 
+import com.upgrade.bookingservice.controller.dto.AvailabilityBitmapResponse;
 import com.upgrade.bookingservice.controller.dto.AvailabilityRequest;
+import com.upgrade.bookingservice.model.AvailabilityChange;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.model.NightCapacity;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
@@ -23,6 +30,104 @@ public interface SiteApi {
     )
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "ok", response = List.class),
+            @ApiResponse(code = 304, message = "not modified"),
             @ApiResponse(code = 400, message = "bad request") })
-    Mono<ResponseEntity<List<LocalDate>>> getAvailabilities(@Valid AvailabilityRequest availabilityRequest);
+    Mono<ResponseEntity<List<LocalDate>>> getAvailabilities(@Valid AvailabilityRequest availabilityRequest, @ApiParam(value = "entity tag of a previous response") String ifNoneMatch);
+
+    @ApiOperation(
+            value = "Stream site availabilities",
+            nickname = "stream site availabilities",
+            response = LocalDate.class,
+            responseContainer = "List",
+            produces = "application/x-ndjson, text/event-stream",
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = LocalDate.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "bad request") })
+    Flux<LocalDate> streamAvailabilities(@Valid AvailabilityRequest availabilityRequest);
+
+    @ApiOperation(
+            value = "Find site availabilities as a base64 bitmap of free nights",
+            nickname = "find site availability bitmap",
+            response = AvailabilityBitmapResponse.class,
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = AvailabilityBitmapResponse.class),
+            @ApiResponse(code = 304, message = "not modified"),
+            @ApiResponse(code = 400, message = "bad request") })
+    Mono<ResponseEntity<AvailabilityBitmapResponse>> getAvailabilityBitmap(@Valid AvailabilityRequest availabilityRequest, @ApiParam(value = "entity tag of a previous response") String ifNoneMatch);
+
+    @ApiOperation(
+            value = "Find site availabilities as a raw bitmap of free nights",
+            nickname = "find raw site availability bitmap",
+            response = byte[].class,
+            produces = "application/octet-stream",
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = byte[].class),
+            @ApiResponse(code = 304, message = "not modified"),
+            @ApiResponse(code = 400, message = "bad request") })
+    Mono<ResponseEntity<byte[]>> getRawAvailabilityBitmap(@Valid AvailabilityRequest availabilityRequest, @ApiParam(value = "entity tag of a previous response") String ifNoneMatch);
+
+    @ApiOperation(
+            value = "Find maximal free intervals of the site",
+            nickname = "find site free intervals",
+            response = FreeInterval.class,
+            responseContainer = "List",
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = FreeInterval.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "bad request") })
+    Mono<ResponseEntity<List<FreeInterval>>> getFreeIntervals(@Valid AvailabilityRequest availabilityRequest);
+
+    @ApiOperation(
+            value = "Find the first free window of the given number of nights",
+            nickname = "find site first free window",
+            response = FreeInterval.class,
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = FreeInterval.class),
+            @ApiResponse(code = 400, message = "bad request"),
+            @ApiResponse(code = 404, message = "not found") })
+    Mono<ResponseEntity<FreeInterval>> getFirstFreeWindow(@Valid AvailabilityRequest availabilityRequest, @ApiParam(value = "number of nights", required = true) int nights);
+
+    @ApiOperation(
+            value = "Find the units left on each night of the site",
+            nickname = "find site capacity",
+            response = NightCapacity.class,
+            responseContainer = "List",
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = NightCapacity.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "bad request") })
+    Mono<ResponseEntity<List<NightCapacity>>> getCapacity(@Valid AvailabilityRequest availabilityRequest);
+
+    @ApiOperation(
+            value = "Find the sites free for every night between two dates",
+            nickname = "find available sites",
+            response = Long.class,
+            responseContainer = "List",
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = Long.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "bad request") })
+    Mono<ResponseEntity<List<Long>>> getAvailableSites(@Valid AvailabilityRequest availabilityRequest);
+
+    @ApiOperation(
+            value = "Subscribe to the nights that become booked or free",
+            nickname = "stream site availability changes",
+            response = AvailabilityChange.class,
+            produces = "text/event-stream",
+            tags={"site"}
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "ok", response = AvailabilityChange.class) })
+    Flux<ServerSentEvent<AvailabilityChange>> streamAvailabilityChanges();
 }
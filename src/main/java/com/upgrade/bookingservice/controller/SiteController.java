@@ -1,19 +1,37 @@
 package com.upgrade.bookingservice.controller;
 
+import com.upgrade.bookingservice.controller.dto.AvailabilityBitmapResponse;
 import com.upgrade.bookingservice.controller.dto.AvailabilityRequest;
+import com.upgrade.bookingservice.exception.BadRequestException;
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.model.AvailabilityChange;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.model.NightCapacity;
 import com.upgrade.bookingservice.service.BookingService;
+import com.upgrade.bookingservice.util.Constants;
 import com.upgrade.bookingservice.validator.AvailabilityValidator;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.InitBinder;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
 import java.util.List;
 
 @RestController
@@ -26,15 +44,139 @@ public class SiteController implements SiteApi {
 
     @Override
     @GetMapping("/availabilities")
-    public Mono<ResponseEntity<List<LocalDate>>> getAvailabilities(@Valid AvailabilityRequest availabilityRequest) {
-        return bookingService.findAvailabilitiesBetween(availabilityRequest.getFrom(), availabilityRequest.getTo())
+    public Mono<ResponseEntity<List<LocalDate>>> getAvailabilities(@Valid AvailabilityRequest availabilityRequest,
+                                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = eTag(availabilityRequest, "list");
+        if (matches(ifNoneMatch, eTag)) {
+            return Mono.just(notModified(eTag));
+        }
+        return bookingService.findAvailabilitiesBetween(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo())
                 .collectList()
+                .map(availabilities -> ResponseEntity.ok().eTag(eTag).body(availabilities));
+    }
+
+    @Override
+    @GetMapping(value = "/availabilities", produces = {Constants.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<LocalDate> streamAvailabilities(@Valid AvailabilityRequest availabilityRequest) {
+        return bookingService.findAvailabilitiesBetween(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo());
+    }
+
+    @Override
+    @GetMapping(value = "/availabilities", params = "format=bitmap")
+    public Mono<ResponseEntity<AvailabilityBitmapResponse>> getAvailabilityBitmap(@Valid AvailabilityRequest availabilityRequest,
+                                                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = eTag(availabilityRequest, "bitmap");
+        if (matches(ifNoneMatch, eTag)) {
+            return Mono.just(notModified(eTag));
+        }
+        int nights = nightsBetween(availabilityRequest);
+        return bookingService.findAvailabilityBitmapBetween(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo())
+                .map(free -> AvailabilityBitmapResponse.builder()
+                        .from(availabilityRequest.getFrom())
+                        .nights(nights)
+                        .bitmap(Base64.getEncoder().encodeToString(toBytes(free, nights)))
+                        .build())
+                .map(bitmap -> ResponseEntity.ok().eTag(eTag).body(bitmap));
+    }
+
+    @Override
+    @GetMapping(value = "/availabilities", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<byte[]>> getRawAvailabilityBitmap(@Valid AvailabilityRequest availabilityRequest,
+                                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = eTag(availabilityRequest, "raw");
+        if (matches(ifNoneMatch, eTag)) {
+            return Mono.just(notModified(eTag));
+        }
+        int nights = nightsBetween(availabilityRequest);
+        return bookingService.findAvailabilityBitmapBetween(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo())
+                .map(free -> ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .eTag(eTag)
+                        .header(Constants.AVAILABILITY_FROM_HEADER, availabilityRequest.getFrom().toString())
+                        .header(Constants.AVAILABILITY_NIGHTS_HEADER, String.valueOf(nights))
+                        .body(toBytes(free, nights)));
+    }
+
+    @Override
+    @GetMapping("/availabilities/intervals")
+    public Mono<ResponseEntity<List<FreeInterval>>> getFreeIntervals(@Valid AvailabilityRequest availabilityRequest) {
+        return bookingService.findFreeIntervalsBetween(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo())
+                .collectList()
+                .map(ResponseEntity::ok);
+    }
+
+    @Override
+    @GetMapping(value = "/availabilities/intervals", params = "nights")
+    public Mono<ResponseEntity<FreeInterval>> getFirstFreeWindow(@Valid AvailabilityRequest availabilityRequest, @RequestParam int nights) {
+        if (nights < 1) {
+            return Mono.error(new BadRequestException("Number of nights should be at least 1"));
+        }
+        return bookingService.findFirstFreeWindow(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo(), nights)
+                .switchIfEmpty(Mono.error(new NotFoundException(String.format("No free window of %d nights", nights))))
                 .map(ResponseEntity::ok);
     }
 
+    @Override
+    @GetMapping("/availabilities/capacity")
+    public Mono<ResponseEntity<List<NightCapacity>>> getCapacity(@Valid AvailabilityRequest availabilityRequest) {
+        return bookingService.findCapacityBetween(availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo())
+                .collectList()
+                .map(ResponseEntity::ok);
+    }
+
+    @Override
+    @GetMapping("/availabilities/sites")
+    public Mono<ResponseEntity<List<Long>>> getAvailableSites(@Valid AvailabilityRequest availabilityRequest) {
+        return bookingService.findSitesAvailableBetween(availabilityRequest.getFrom(), availabilityRequest.getTo())
+                .collectList()
+                .map(ResponseEntity::ok);
+    }
+
+    @Override
+    @GetMapping(value = "/availabilities/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AvailabilityChange>> streamAvailabilityChanges() {
+        return bookingService.availabilityChanges()
+                .map(change -> ServerSentEvent.builder(change)
+                        .id(change.getSiteId() + "-" + change.getVersion())
+                        .event("availability-change")
+                        .build());
+    }
+
     @InitBinder(value = {"availabilityRequest"})
     public void init(WebDataBinder binder) {
         binder.addValidators(availabilityValidator);
     }
 
+    // strong tag: the occupancy version of the site changes whenever one of its nights is booked or freed, and each representation gets its own tag;
+    // the epoch keeps a tag issued before a restart, or by another instance, from matching an unrelated occupancy
+    private String eTag(AvailabilityRequest availabilityRequest, String representation) {
+        return String.format("\"%x-%d-%d-%s-%s-%s\"", bookingService.getOccupancyEpoch(), bookingService.getOccupancyVersion(availabilityRequest.getSite()),
+                availabilityRequest.getSite(), availabilityRequest.getFrom(), availabilityRequest.getTo(), representation);
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(eTag) || tag.equals("W/" + eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> ResponseEntity<T> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+    }
+
+    private static int nightsBetween(AvailabilityRequest availabilityRequest) {
+        return (int) ChronoUnit.DAYS.between(availabilityRequest.getFrom(), availabilityRequest.getTo());
+    }
+
+    // little-endian bit order, padded so that trailing booked nights are still sent
+    private static byte[] toBytes(BitSet free, int nights) {
+        return Arrays.copyOf(free.toByteArray(), (nights + 7) / 8);
+    }
 }
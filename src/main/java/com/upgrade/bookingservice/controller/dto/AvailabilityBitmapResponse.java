@@ -0,0 +1,28 @@
+package com.upgrade.bookingservice.controller.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel("AvailabilityBitmap")
+public class AvailabilityBitmapResponse {
+
+    @ApiModelProperty(value = "night of the first bit", example = "2019-07-05")
+    private LocalDate from;
+
+    @ApiModelProperty(value = "number of nights covered by the bitmap", example = "10")
+    private int nights;
+
+    @ApiModelProperty(value = "base64 little-endian bitset, bit i set when night from + i is free", example = "/QM=")
+    private String bitmap;
+
+}
@@ -16,6 +16,10 @@ import java.time.LocalDate;
 @AllArgsConstructor
 public class AvailabilityRequest {
 
+    @ApiModelProperty(value = "site id, the first site when missing", example = "1")
+    @Builder.Default
+    private Long site = Constants.DEFAULT_SITE_ID;
+
     @ApiModelProperty(value = "start date", example = "2019-07-05")
     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
     private LocalDate from = LocalDate.now();
@@ -18,9 +18,11 @@ import java.time.LocalDateTime;
 public class CustomerReservationResponse {
 
     private Long id;
+    private Long siteId;
     private String fullName;
     private String email;
     private String status;
+    private Long version;
 
     @JsonSerialize(using = LocalDateTimeSerializer.class)
     private LocalDateTime arrivalDate;
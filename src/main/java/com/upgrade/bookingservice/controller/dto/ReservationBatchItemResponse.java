@@ -0,0 +1,23 @@
+package com.upgrade.bookingservice.controller.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@ApiModel("ReservationBatchItem")
+public class ReservationBatchItemResponse {
+
+    // position of the item in the batch request
+    private int index;
+    private int status;
+    private CustomerReservationResponse reservation;
+    private String message;
+}
@@ -23,10 +23,14 @@ public class ReservationRequest extends ReservationDTO {
     @ApiModelProperty(example = "john@doe.com")
     private String email;
 
+    @ApiModelProperty(value = "site id, the first site when missing", example = "1")
+    private Long siteId;
+
     @Builder
-    public ReservationRequest(@NotNull LocalDate arrivalDate, @NotNull LocalDate departureDate, @NotNull(message = "Full name cannot be missing or empty") @Size(min = 4, message = "Full name must not be less than 2 characters") String fullName, @Email(regexp = "^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$") String email) {
+    public ReservationRequest(@NotNull LocalDate arrivalDate, @NotNull LocalDate departureDate, @NotNull(message = "Full name cannot be missing or empty") @Size(min = 4, message = "Full name must not be less than 2 characters") String fullName, @Email(regexp = "^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$") String email, Long siteId) {
         super(arrivalDate, departureDate);
         this.fullName = fullName;
         this.email = email;
+        this.siteId = siteId;
     }
 }
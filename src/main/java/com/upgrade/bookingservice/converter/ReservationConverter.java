@@ -14,6 +14,7 @@ public class ReservationConverter {
 
     public CustomerReservation create(ReservationRequest reservationRequest) {
         return CustomerReservation.builder()
+                .siteId(reservationRequest.getSiteId() == null ? Constants.DEFAULT_SITE_ID : reservationRequest.getSiteId())
                 .fullName(reservationRequest.getFullName())
                 .email(reservationRequest.getEmail())
                 .arrivalDate(LocalDateTime.of(reservationRequest.getArrivalDate(), Constants.DEFAULT_CHECK_IN_TIME))
@@ -32,11 +33,13 @@ public class ReservationConverter {
     public CustomerReservationResponse convert(CustomerReservation reservation) {
         return CustomerReservationResponse.builder()
                 .id(reservation.getId())
+                .siteId(reservation.getSiteId())
                 .fullName(reservation.getFullName())
                 .email(reservation.getEmail())
                 .arrivalDate(reservation.getArrivalDate())
                 .departureDate(reservation.getDepartureDate())
                 .status(reservation.getStatus().name())
+                .version(reservation.getVersion())
                 .build();
     }
 }
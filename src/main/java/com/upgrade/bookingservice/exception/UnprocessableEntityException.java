@@ -6,7 +6,16 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
 public class UnprocessableEntityException extends RuntimeException {
 
-    public UnprocessableEntityException(String message) {
+    public enum Reason { UNAVAILABLE, CONFLICT, OUTSIDE_BOOKING_WINDOW, ALREADY_CANCELLED, IDEMPOTENCY_KEY_REUSED }
+
+    private final Reason reason;
+
+    public UnprocessableEntityException(Reason reason, String message) {
         super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
     }
 }
@@ -0,0 +1,22 @@
+package com.upgrade.bookingservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AvailabilityChange {
+
+    private Long siteId;
+    // occupancy version of the site the change leads to, consecutive unless events were dropped for a slow subscriber
+    private long version;
+    private List<LocalDate> booked;
+    private List<LocalDate> freed;
+}
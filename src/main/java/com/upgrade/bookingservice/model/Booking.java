@@ -1,5 +1,6 @@
 package com.upgrade.bookingservice.model;
 
+import com.upgrade.bookingservice.util.Constants;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -16,4 +17,7 @@ public class Booking {
     private LocalDateTime arrivalDate;
     private LocalDateTime departureDate;
     private Long reservationId;
+
+    @Builder.Default
+    private Long siteId = Constants.DEFAULT_SITE_ID;
 }
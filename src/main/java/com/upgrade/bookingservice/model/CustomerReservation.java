@@ -1,5 +1,6 @@
 package com.upgrade.bookingservice.model;
 
+import com.upgrade.bookingservice.util.Constants;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -19,6 +20,9 @@ public class CustomerReservation {
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
 
+    @Builder.Default
+    private Long siteId = Constants.DEFAULT_SITE_ID;
+
     private String fullName;
 
     private String email;
@@ -29,4 +33,8 @@ public class CustomerReservation {
 
     @Enumerated(EnumType.STRING)
     private Status status;
+
+    // bumped on every write, a write based on an older version is refused
+    @Version
+    private Long version;
 }
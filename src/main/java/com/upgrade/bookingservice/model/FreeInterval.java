@@ -0,0 +1,19 @@
+package com.upgrade.bookingservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FreeInterval {
+
+    // first free night and the day after the last free night
+    private LocalDate start;
+    private LocalDate end;
+}
@@ -0,0 +1,19 @@
+package com.upgrade.bookingservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NightCapacity {
+
+    private LocalDate night;
+    // units of the site still free on that night
+    private int remaining;
+}
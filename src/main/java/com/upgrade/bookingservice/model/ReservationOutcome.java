@@ -0,0 +1,26 @@
+package com.upgrade.bookingservice.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ReservationOutcome {
+
+    // the reservation as requested, or as persisted when it was created; rejections are unprocessable or not found
+    private CustomerReservation reservation;
+    private RuntimeException rejection;
+
+    public static ReservationOutcome created(CustomerReservation reservation) {
+        return new ReservationOutcome(reservation, null);
+    }
+
+    public static ReservationOutcome rejected(CustomerReservation reservation, RuntimeException rejection) {
+        return new ReservationOutcome(reservation, rejection);
+    }
+
+    public boolean isCreated() {
+        return rejection == null;
+    }
+}
@@ -1,10 +1,18 @@
 package com.upgrade.bookingservice.repository;
 
 import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.util.Constants;
 import reactor.core.publisher.Flux;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 
 public interface BookingRepository {
 
@@ -20,4 +28,80 @@ public interface BookingRepository {
 
     boolean isRangeAvailable(LocalDateTime arrivalDate, LocalDateTime departureDate);
 
+    // hands the nights claimed under a provisional id over to the persisted reservation in place, they are never free
+    // in between
+    Booking confirm(Booking claim, Long reservationId);
+
+    // a shard restored on its own, from a journal, is not rebuilt from the database on startup
+    default boolean isRestored() {
+        return false;
+    }
+
+    // whether the reservation of the booking holds exactly its nights
+    default boolean holds(Booking booking) {
+        return false;
+    }
+
+    // the reservations a restored shard holds nights for, checked against the database on startup
+    default List<Booking> findRestoredBookings() {
+        return Collections.emptyList();
+    }
+
+    // the ring buffer indexes keep one slot per night of the booking window whatever the occupancy
+    default int indexSize() {
+        return Constants.BOOKING_WINDOW_DAYS;
+    }
+
+    // returns the number of index entries dropped; the ring buffer indexes reuse the slots of past nights as days pass
+    default int evictPastNights() {
+        return 0;
+    }
+
+    // bit i is set when the i-th night from the arrival date is free
+    default BitSet findAvailabilityBitmapBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        int nights = (int) Math.max(ChronoUnit.DAYS.between(arrivalDate.toLocalDate(), departureDate.toLocalDate()), 0);
+        BitSet free = new BitSet(nights);
+        for (int i = 0; i < nights; i++) {
+            if (!contains(arrivalDate.plusDays(i))) {
+                free.set(i);
+            }
+        }
+        return free;
+    }
+
+    // units left on each night from the arrival date; a single unit site has one on free nights and none on booked ones
+    default int[] findRemainingUnitsBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        BitSet free = findAvailabilityBitmapBetween(arrivalDate, departureDate);
+        int[] remaining = new int[(int) Math.max(ChronoUnit.DAYS.between(arrivalDate.toLocalDate(), departureDate.toLocalDate()), 0)];
+        free.stream().forEach(i -> remaining[i] = 1);
+        return remaining;
+    }
+
+    default Flux<FreeInterval> findFreeIntervalsBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        BitSet free = findAvailabilityBitmapBetween(arrivalDate, departureDate);
+        LocalDate from = arrivalDate.toLocalDate();
+        List<FreeInterval> intervals = new ArrayList<>();
+        int start = free.nextSetBit(0);
+        while (start >= 0) {
+            int end = free.nextClearBit(start);
+            intervals.add(new FreeInterval(from.plusDays(start), from.plusDays(end)));
+            start = free.nextSetBit(end);
+        }
+        return Flux.fromIterable(intervals);
+    }
+
+    default Optional<FreeInterval> findFirstFreeWindow(LocalDateTime arrivalDate, LocalDateTime departureDate, int nights) {
+        BitSet free = findAvailabilityBitmapBetween(arrivalDate, departureDate);
+        LocalDate from = arrivalDate.toLocalDate();
+        int start = free.nextSetBit(0);
+        while (start >= 0) {
+            int end = free.nextClearBit(start);
+            if (end - start >= nights) {
+                return Optional.of(new FreeInterval(from.plusDays(start), from.plusDays(start + nights)));
+            }
+            start = free.nextSetBit(end);
+        }
+        return Optional.empty();
+    }
+
 }
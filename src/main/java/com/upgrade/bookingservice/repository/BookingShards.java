@@ -0,0 +1,47 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.util.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// one independent booking index per site; shards share no state, so writes to different sites never contend
+public class BookingShards implements Closeable {
+
+    private final Map<Long, BookingRepository> shards;
+
+    public BookingShards(Map<Long, BookingRepository> shards) {
+        this.shards = Collections.unmodifiableMap(new TreeMap<>(shards));
+    }
+
+    // requests that name no site are for the first one
+    public Long resolve(Long siteId) {
+        Long resolved = siteId == null ? Constants.DEFAULT_SITE_ID : siteId;
+        if (!shards.containsKey(resolved)) {
+            throw new NotFoundException(String.format("Couldn't find site with id %s", siteId));
+        }
+        return resolved;
+    }
+
+    public BookingRepository forSite(Long siteId) {
+        return shards.get(resolve(siteId));
+    }
+
+    public Set<Long> getSiteIds() {
+        return shards.keySet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BookingRepository shard : shards.values()) {
+            if (shard instanceof Closeable) {
+                ((Closeable) shard).close();
+            }
+        }
+    }
+}
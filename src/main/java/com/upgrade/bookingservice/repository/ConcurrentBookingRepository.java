@@ -0,0 +1,252 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.util.Constants;
+import reactor.core.publisher.Flux;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.LongStream;
+
+public class ConcurrentBookingRepository implements BookingRepository {
+
+    private static final long FREE = 0L;
+
+    // each slot packs the owning reservation id with the low bits of the epoch day it was claimed for,
+    // so slots left behind by the rolling window read as free without ever being cleared
+    private static final int DAY_BITS = 16;
+    private static final long DAY_MASK = (1L << DAY_BITS) - 1;
+
+    private final Clock clock;
+    private final AtomicLongArray nights = new AtomicLongArray(Constants.BOOKING_WINDOW_DAYS);
+    // follows the slots, which stay the only source of truth: a leaf is always recomputed from its slot while holding
+    // the tree, so whichever writer refreshes it last leaves it right whatever order the swaps happened in
+    private final FreeNightTree freeNights = new FreeNightTree(Constants.BOOKING_WINDOW_DAYS);
+    // first day of the window the tree leaves stand for, only moved while holding the tree
+    private volatile long base;
+
+    public ConcurrentBookingRepository() {
+        this(Clock.systemDefaultZone());
+    }
+
+    public ConcurrentBookingRepository(Clock clock) {
+        this.clock = clock;
+        this.base = today();
+    }
+
+    @Override
+    public Booking save(Booking booking) {
+        long reservationId = booking.getReservationId();
+        long arrival = toEpochDay(booking.getArrivalDate());
+        long departure = toEpochDay(booking.getDepartureDate());
+        checkWindow(arrival, departure);
+
+        claim(reservationId, arrival, departure);
+        return booking;
+    }
+
+    @Override
+    public Booking update(Booking booking) {
+        long reservationId = booking.getReservationId();
+        long arrival = toEpochDay(booking.getArrivalDate());
+        long departure = toEpochDay(booking.getDepartureDate());
+        checkWindow(arrival, departure);
+
+        claim(reservationId, arrival, departure);
+
+        long today = today();
+        for (long day = today; day < today + nights.length(); day++) {
+            if (day < arrival || day >= departure) {
+                release(reservationId, day);
+            }
+        }
+        return booking;
+    }
+
+    // every night moves from the provisional id to the reservation in a single step, none is ever seen free
+    @Override
+    public Booking confirm(Booking claim, Long reservationId) {
+        long provisionalId = claim.getReservationId();
+        for (long day = toEpochDay(claim.getArrivalDate()); day < toEpochDay(claim.getDepartureDate()); day++) {
+            nights.compareAndSet(slot(day), pack(provisionalId, day), pack(reservationId, day));
+        }
+        return Booking.builder()
+                .siteId(claim.getSiteId())
+                .arrivalDate(claim.getArrivalDate())
+                .departureDate(claim.getDepartureDate())
+                .reservationId(reservationId)
+                .build();
+    }
+
+    @Override
+    public void cancel(Booking booking) {
+        long reservationId = booking.getReservationId();
+        long today = today();
+        long arrival = Math.max(toEpochDay(booking.getArrivalDate()), today);
+        long departure = Math.min(toEpochDay(booking.getDepartureDate()), today + nights.length());
+
+        for (long day = arrival; day < departure; day++) {
+            release(reservationId, day);
+        }
+    }
+
+    @Override
+    public Flux<LocalDate> findAvailabilitiesBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        long today = today();
+        return Flux.fromStream(LongStream.range(toEpochDay(arrivalDate), toEpochDay(departureDate))
+                .filter(day -> !isBooked(today, day))
+                .mapToObj(LocalDate::ofEpochDay));
+    }
+
+    @Override
+    public boolean contains(LocalDateTime bookingDate) {
+        return isBooked(today(), toEpochDay(bookingDate));
+    }
+
+    @Override
+    public boolean isRangeAvailable(LocalDateTime arrival, LocalDateTime departure) {
+        long today = today();
+        long to = toEpochDay(departure);
+        for (long day = toEpochDay(arrival); day < to; day++) {
+            if (isBooked(today, day)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BitSet findAvailabilityBitmapBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        long today = today();
+        long arrival = toEpochDay(arrivalDate);
+        int length = (int) Math.max(toEpochDay(departureDate) - arrival, 0);
+        BitSet free = new BitSet(length);
+        for (int i = 0; i < length; i++) {
+            if (!isBooked(today, arrival + i)) {
+                free.set(i);
+            }
+        }
+        return free;
+    }
+
+    // served by the tree within the booking window; a range reaching past it falls back to scanning the bitmap
+    @Override
+    public Optional<FreeInterval> findFirstFreeWindow(LocalDateTime arrivalDate, LocalDateTime departureDate, int length) {
+        long windowStart = roll();
+        long arrival = toEpochDay(arrivalDate);
+        long departure = toEpochDay(departureDate);
+        if (arrival < windowStart || departure > windowStart + nights.length()) {
+            return BookingRepository.super.findFirstFreeWindow(arrivalDate, departureDate, length);
+        }
+
+        int offset = freeNights.firstFree(slot(arrival), (int) Math.max(departure - arrival, 0), length);
+        if (offset < 0) {
+            return Optional.empty();
+        }
+        LocalDate start = LocalDate.ofEpochDay(arrival + offset);
+        return Optional.of(new FreeInterval(start, start.plusDays(length)));
+    }
+
+    // claims every night of the range for the reservation, or none of them
+    private void claim(long reservationId, long arrival, long departure) {
+        long claimed = 0L;
+        for (long day = arrival; day < departure; day++) {
+            int slot = slot(day);
+            long owned = pack(reservationId, day);
+            while (true) {
+                long current = nights.get(slot);
+                if (current == owned) {
+                    break;
+                }
+                if (isClaimed(current, day)) {
+                    rollback(reservationId, arrival, day, claimed);
+                    throw new UnprocessableEntityException(UnprocessableEntityException.Reason.CONFLICT, String.format("Requested range of dates is in conflict on day %s", LocalDate.ofEpochDay(day)));
+                }
+                if (nights.compareAndSet(slot, current, owned)) {
+                    refresh(slot);
+                    claimed |= 1L << (day - arrival);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void rollback(long reservationId, long arrival, long departure, long claimed) {
+        for (long day = arrival; day < departure; day++) {
+            if ((claimed & 1L << (day - arrival)) != 0) {
+                release(reservationId, day);
+            }
+        }
+    }
+
+    private void release(long reservationId, long day) {
+        int slot = slot(day);
+        if (nights.compareAndSet(slot, pack(reservationId, day), FREE)) {
+            refresh(slot);
+        }
+    }
+
+    private void refresh(int slot) {
+        synchronized (freeNights) {
+            freeNights.set(slot, !isClaimed(nights.get(slot), dayOf(slot)));
+        }
+    }
+
+    // moves the tree to the window starting today, the slots left behind now stand for nights at its far end
+    private long roll() {
+        long today = today();
+        if (today > base) {
+            synchronized (freeNights) {
+                long stale = Math.min(today - base, nights.length());
+                base = today;
+                for (long day = today + nights.length() - stale; day < today + nights.length(); day++) {
+                    int slot = slot(day);
+                    freeNights.set(slot, !isClaimed(nights.get(slot), day));
+                }
+            }
+        }
+        return base;
+    }
+
+    // the night of the window the tree stands for that the slot holds
+    private long dayOf(int slot) {
+        return base + Math.floorMod(slot - base, (long) nights.length());
+    }
+
+    private boolean isBooked(long today, long day) {
+        return day >= today && day < today + nights.length() && isClaimed(nights.get(slot(day)), day);
+    }
+
+    private void checkWindow(long arrival, long departure) {
+        long today = today();
+        if (arrival < today || departure > today + nights.length()) {
+            throw new UnprocessableEntityException(UnprocessableEntityException.Reason.OUTSIDE_BOOKING_WINDOW, "Requested range of dates is outside of the booking window");
+        }
+    }
+
+    private int slot(long day) {
+        return (int) Math.floorMod(day, (long) nights.length());
+    }
+
+    private long today() {
+        return LocalDate.now(clock).toEpochDay();
+    }
+
+    private static boolean isClaimed(long value, long day) {
+        return value != FREE && (value & DAY_MASK) == (day & DAY_MASK);
+    }
+
+    private static long pack(long reservationId, long day) {
+        return reservationId << DAY_BITS | (day & DAY_MASK);
+    }
+
+    private static long toEpochDay(LocalDateTime dateTime) {
+        return dateTime.toLocalDate().toEpochDay();
+    }
+}
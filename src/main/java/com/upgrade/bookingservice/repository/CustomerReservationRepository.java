@@ -1,9 +1,16 @@
 package com.upgrade.bookingservice.repository;
 
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.Status;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+
 @Repository
 public interface CustomerReservationRepository extends JpaRepository<CustomerReservation, Long> {
+
+    Slice<CustomerReservation> findByStatusAndDepartureDateAfter(Status status, LocalDateTime departureDate, Pageable pageable);
 }
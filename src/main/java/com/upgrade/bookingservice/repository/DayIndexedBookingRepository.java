@@ -0,0 +1,208 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.util.Constants;
+import reactor.core.publisher.Flux;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.stream.LongStream;
+
+public class DayIndexedBookingRepository implements BookingRepository {
+
+    private static final long FREE = 0L;
+
+    private final Clock clock;
+
+    // ring buffer of reservation ids, one slot per night of the booking window starting at base
+    private final long[] nights = new long[Constants.BOOKING_WINDOW_DAYS];
+    private final FreeNightTree freeNights = new FreeNightTree(Constants.BOOKING_WINDOW_DAYS);
+    private volatile long base;
+
+    public DayIndexedBookingRepository() {
+        this(Clock.systemDefaultZone());
+    }
+
+    DayIndexedBookingRepository(Clock clock) {
+        this.clock = clock;
+        this.base = today();
+    }
+
+    @Override
+    public Booking save(Booking booking) {
+        roll();
+        long arrival = toEpochDay(booking.getArrivalDate());
+        long departure = toEpochDay(booking.getDepartureDate());
+        checkWindow(arrival, departure);
+
+        for (long day = arrival; day < departure; day++) {
+            assign(slot(day), booking.getReservationId());
+        }
+        return booking;
+    }
+
+    @Override
+    public Booking update(Booking booking) {
+        roll();
+        long reservationId = booking.getReservationId();
+        long arrival = toEpochDay(booking.getArrivalDate());
+        long departure = toEpochDay(booking.getDepartureDate());
+        checkWindow(arrival, departure);
+
+        for (long day = arrival; day < departure; day++) {
+            long owner = nights[slot(day)];
+            if (owner != FREE && owner != reservationId) {
+                throw new UnprocessableEntityException(UnprocessableEntityException.Reason.CONFLICT, String.format("Requested range of dates is in conflict on day %s", LocalDate.ofEpochDay(day)));
+            }
+        }
+
+        for (int i = 0; i < nights.length; i++) {
+            if (nights[i] == reservationId) {
+                assign(i, FREE);
+            }
+        }
+        for (long day = arrival; day < departure; day++) {
+            assign(slot(day), reservationId);
+        }
+        return booking;
+    }
+
+    @Override
+    public Booking confirm(Booking claim, Long reservationId) {
+        roll();
+        long provisionalId = claim.getReservationId();
+        long arrival = Math.max(toEpochDay(claim.getArrivalDate()), base);
+        long departure = Math.min(toEpochDay(claim.getDepartureDate()), base + nights.length);
+
+        for (long day = arrival; day < departure; day++) {
+            if (nights[slot(day)] == provisionalId) {
+                assign(slot(day), reservationId);
+            }
+        }
+        return Booking.builder()
+                .siteId(claim.getSiteId())
+                .arrivalDate(claim.getArrivalDate())
+                .departureDate(claim.getDepartureDate())
+                .reservationId(reservationId)
+                .build();
+    }
+
+    @Override
+    public void cancel(Booking booking) {
+        roll();
+        long arrival = Math.max(toEpochDay(booking.getArrivalDate()), base);
+        long departure = Math.min(toEpochDay(booking.getDepartureDate()), base + nights.length);
+
+        for (long day = arrival; day < departure; day++) {
+            assign(slot(day), FREE);
+        }
+    }
+
+    @Override
+    public Flux<LocalDate> findAvailabilitiesBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        roll();
+        return Flux.fromStream(LongStream.range(toEpochDay(arrivalDate), toEpochDay(departureDate))
+                .filter(day -> !isBooked(day))
+                .mapToObj(LocalDate::ofEpochDay));
+    }
+
+    @Override
+    public boolean contains(LocalDateTime bookingDate) {
+        roll();
+        return isBooked(toEpochDay(bookingDate));
+    }
+
+    @Override
+    public boolean isRangeAvailable(LocalDateTime arrival, LocalDateTime departure) {
+        roll();
+        long to = toEpochDay(departure);
+        for (long day = toEpochDay(arrival); day < to; day++) {
+            if (isBooked(day)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BitSet findAvailabilityBitmapBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        roll();
+        long arrival = toEpochDay(arrivalDate);
+        int length = (int) Math.max(toEpochDay(departureDate) - arrival, 0);
+        BitSet free = new BitSet(length);
+        for (int i = 0; i < length; i++) {
+            if (!isBooked(arrival + i)) {
+                free.set(i);
+            }
+        }
+        return free;
+    }
+
+    @Override
+    public Optional<FreeInterval> findFirstFreeWindow(LocalDateTime arrivalDate, LocalDateTime departureDate, int length) {
+        roll();
+        long arrival = toEpochDay(arrivalDate);
+        long departure = toEpochDay(departureDate);
+        if (arrival < base || departure > base + nights.length) {
+            return BookingRepository.super.findFirstFreeWindow(arrivalDate, departureDate, length);
+        }
+
+        int offset = freeNights.firstFree(slot(arrival), (int) Math.max(departure - arrival, 0), length);
+        if (offset < 0) {
+            return Optional.empty();
+        }
+        LocalDate start = LocalDate.ofEpochDay(arrival + offset);
+        return Optional.of(new FreeInterval(start, start.plusDays(length)));
+    }
+
+    private void assign(int slot, long reservationId) {
+        nights[slot] = reservationId;
+        freeNights.set(slot, reservationId == FREE);
+    }
+
+    private boolean isBooked(long day) {
+        return day >= base && day < base + nights.length && nights[slot(day)] != FREE;
+    }
+
+    // moves the window forward to today, releasing the slots of the nights left behind
+    private void roll() {
+        long today = today();
+        if (today > base) {
+            rollTo(today);
+        }
+    }
+
+    private synchronized void rollTo(long today) {
+        if (today <= base) {
+            return;
+        }
+        long stale = Math.min(today - base, nights.length);
+        for (long i = 0; i < stale; i++) {
+            assign(slot(base + i), FREE);
+        }
+        base = today;
+    }
+
+    private void checkWindow(long arrival, long departure) {
+        if (arrival < base || departure > base + nights.length) {
+            throw new UnprocessableEntityException(UnprocessableEntityException.Reason.OUTSIDE_BOOKING_WINDOW, "Requested range of dates is outside of the booking window");
+        }
+    }
+
+    private int slot(long day) {
+        return (int) Math.floorMod(day, (long) nights.length);
+    }
+
+    private long today() {
+        return LocalDate.now(clock).toEpochDay();
+    }
+
+    private static long toEpochDay(LocalDateTime dateTime) {
+        return dateTime.toLocalDate().toEpochDay();
+    }
+}
@@ -0,0 +1,92 @@
+package com.upgrade.bookingservice.repository;
+
+// segment tree over the slots of a night ring, each node keeping the free run touching its left edge,
+// the free run touching its right edge and its longest free run
+class FreeNightTree {
+
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final int capacity;
+    private final int leaves;
+    private final int[] prefix;
+    private final int[] suffix;
+    private final int[] longest;
+
+    FreeNightTree(int capacity) {
+        this.capacity = capacity;
+        this.leaves = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.prefix = new int[2 * leaves];
+        this.suffix = new int[2 * leaves];
+        this.longest = new int[2 * leaves];
+        // padding leaves stay booked so that no window spans past the last slot
+        for (int slot = 0; slot < capacity; slot++) {
+            setLeaf(leaves + slot, true);
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            pull(node);
+        }
+    }
+
+    synchronized void set(int slot, boolean free) {
+        int node = leaves + slot;
+        setLeaf(node, free);
+        for (node >>= 1; node > 0; node >>= 1) {
+            pull(node);
+        }
+    }
+
+    // first slot offset from the start of the query where a run of nights free slots begins, or -1;
+    // the query covers length slots from the given slot and wraps around the end of the ring
+    synchronized int firstFree(int slot, int length, int nights) {
+        int[] run = {0};
+        int head = Math.min(length, capacity - slot);
+        int found = firstFree(1, 0, leaves, slot, slot + head, nights, run);
+        if (found != NONE) {
+            return found - slot;
+        }
+        if (length > head) {
+            // a window found here may start before slot 0, in the part of the query searched above
+            found = firstFree(1, 0, leaves, 0, length - head, nights, run);
+            if (found != NONE) {
+                return found + head;
+            }
+        }
+        return -1;
+    }
+
+    // walks the nodes covering [from, to) left to right, carrying the free run ending just before each of them
+    private int firstFree(int node, int start, int end, int from, int to, int nights, int[] run) {
+        if (end <= from || start >= to) {
+            return NONE;
+        }
+        int width = end - start;
+        if (start >= from && end <= to) {
+            if (run[0] + prefix[node] >= nights) {
+                return start - run[0];
+            }
+            if (longest[node] < nights) {
+                run[0] = prefix[node] == width ? run[0] + width : suffix[node];
+                return NONE;
+            }
+        }
+        int middle = (start + end) >>> 1;
+        int found = firstFree(2 * node, start, middle, from, to, nights, run);
+        return found != NONE ? found : firstFree(2 * node + 1, middle, end, from, to, nights, run);
+    }
+
+    private void setLeaf(int node, boolean free) {
+        int length = free ? 1 : 0;
+        prefix[node] = length;
+        suffix[node] = length;
+        longest[node] = length;
+    }
+
+    private void pull(int node) {
+        int left = 2 * node;
+        int right = left + 1;
+        int width = leaves / Integer.highestOneBit(node) / 2;
+        prefix[node] = prefix[left] == width ? width + prefix[right] : prefix[left];
+        suffix[node] = suffix[right] == width ? width + suffix[left] : suffix[right];
+        longest[node] = Math.max(Math.max(longest[left], longest[right]), suffix[left] + prefix[right]);
+    }
+}
@@ -2,54 +2,84 @@ package com.upgrade.bookingservice.repository;
 
 import com.upgrade.bookingservice.exception.UnprocessableEntityException;
 import com.upgrade.bookingservice.model.Booking;
-import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 
+import java.time.Clock;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-@Repository
 public class InMemoryBookingRepository implements BookingRepository {
 
-    private Map<LocalDateTime, Long> bookings = new HashMap<>();
+    private final Clock clock;
+
+    private Map<LocalDateTime, Long> bookings;
+    private Map<Long, Booking> reservations = new ConcurrentHashMap<>();
+
+    public InMemoryBookingRepository() {
+        this(Clock.systemDefaultZone());
+    }
+
+    public InMemoryBookingRepository(Clock clock) {
+        this(clock, new ConcurrentHashMap<>());
+    }
+
+    InMemoryBookingRepository(Clock clock, Map<LocalDateTime, Long> bookings) {
+        this.clock = clock;
+        this.bookings = bookings;
+    }
 
     @Override
     public Booking save(Booking booking) {
         getDatesBetween(booking.getArrivalDate(), booking.getDepartureDate())
                 .forEach(date -> this.bookings.put(date, booking.getReservationId()));
+        reservations.put(booking.getReservationId(), booking);
         return booking;
     }
 
     @Override
     public Booking update(Booking booking) {
         getDatesInConflict(booking.getReservationId(), booking.getArrivalDate(), booking.getDepartureDate())
-                .findAny()
+                .findFirst()
                 .ifPresent(localDateTime -> {
-                    throw new UnprocessableEntityException(String.format("Requested range of dates is in conflict on day %s", localDateTime.toLocalDate()));
+                    throw new UnprocessableEntityException(UnprocessableEntityException.Reason.CONFLICT, String.format("Requested range of dates is in conflict on day %s", localDateTime.toLocalDate()));
                 });
 
-        Iterator it = bookings.entrySet().iterator();
-        while (it.hasNext())
-        {
-            Map.Entry<LocalDateTime, Long> item = (Map.Entry<LocalDateTime, Long>)it.next();
-            if(item.getValue().equals(booking.getReservationId())) {
-                it.remove();
-            }
+        Booking previous = reservations.get(booking.getReservationId());
+        if (previous != null) {
+            getDatesBetween(previous.getArrivalDate(), previous.getDepartureDate())
+                    .forEach(date -> this.bookings.remove(date, booking.getReservationId()));
         }
-        getDatesBetween(booking.getArrivalDate(), booking.getDepartureDate()).forEach(date -> this.bookings.put(date, booking.getReservationId()));
+        return save(booking);
+    }
+
+    @Override
+    public Booking confirm(Booking claim, Long reservationId) {
+        Booking booking = Booking.builder()
+                .siteId(claim.getSiteId())
+                .arrivalDate(claim.getArrivalDate())
+                .departureDate(claim.getDepartureDate())
+                .reservationId(reservationId)
+                .build();
+        getDatesBetween(claim.getArrivalDate(), claim.getDepartureDate())
+                .forEach(date -> this.bookings.replace(date, claim.getReservationId(), reservationId));
+        reservations.remove(claim.getReservationId());
+        reservations.put(reservationId, booking);
         return booking;
     }
 
+    // unlike the original unconditional removal, a night held by another reservation stays booked, so a cancellation
+    // made with stale dates, or the release of a provisional claim, never frees nights it does not own
     @Override
     public void cancel(Booking booking) {
+        reservations.remove(booking.getReservationId());
         getDatesBetween(booking.getArrivalDate(), booking.getDepartureDate())
-                .forEach(bookings::remove);
+                .forEach(date -> this.bookings.remove(date, booking.getReservationId()));
     }
 
     @Override
@@ -70,6 +100,26 @@ public class InMemoryBookingRepository implements BookingRepository {
                 .noneMatch(this::contains);
     }
 
+    @Override
+    public int indexSize() {
+        return bookings.size();
+    }
+
+    // nights before today can no longer be booked nor changed, so they only cost memory and update scans
+    @Override
+    public int evictPastNights() {
+        LocalDate today = LocalDate.now(clock);
+        int evicted = 0;
+        for (Iterator<LocalDateTime> nights = bookings.keySet().iterator(); nights.hasNext(); ) {
+            if (nights.next().toLocalDate().isBefore(today)) {
+                nights.remove();
+                evicted++;
+            }
+        }
+        reservations.values().removeIf(booking -> !booking.getDepartureDate().toLocalDate().isAfter(today));
+        return evicted;
+    }
+
     private Stream<LocalDateTime> getDatesBetween(LocalDateTime arrival, LocalDateTime departure) {
         return IntStream.iterate(0, i -> i + 1)
                 .limit(Math.toIntExact(ChronoUnit.DAYS.between(arrival, departure)))
@@ -78,6 +128,6 @@ public class InMemoryBookingRepository implements BookingRepository {
 
     private Stream<LocalDateTime> getDatesInConflict(Long reservationId, LocalDateTime arrival, LocalDateTime departure) {
         return getDatesBetween(arrival, departure)
-                .filter(localDateTime -> bookings.containsKey(localDateTime) && bookings.get(localDateTime) != reservationId);
+                .filter(localDateTime -> bookings.containsKey(localDateTime) && !bookings.get(localDateTime).equals(reservationId));
     }
 }
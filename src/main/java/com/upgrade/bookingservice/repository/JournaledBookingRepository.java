@@ -0,0 +1,175 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.util.Constants;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@Slf4j
+public class JournaledBookingRepository implements BookingRepository, Closeable {
+
+    private final Clock clock;
+    private final ConcurrentBookingRepository index;
+    private final OccupancyJournal journal;
+    private final boolean restored;
+
+    // nights of every reservation still in the journal, only touched under the write lock
+    private final Map<Long, long[]> bookings = new HashMap<>();
+
+    public JournaledBookingRepository(Path directory, int capacity) {
+        this(directory, capacity, Clock.systemDefaultZone());
+    }
+
+    JournaledBookingRepository(Path directory, int capacity, Clock clock) {
+        this.clock = clock;
+        this.index = new ConcurrentBookingRepository(clock);
+        this.journal = new OccupancyJournal(directory, capacity);
+
+        journal.replay(bookings);
+        restored = !bookings.isEmpty();
+        long today = today();
+        for (Iterator<Map.Entry<Long, long[]>> entries = bookings.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Long, long[]> entry = entries.next();
+            long arrival = Math.max(entry.getValue()[0], today);
+            if (arrival < entry.getValue()[1]) {
+                try {
+                    index.save(booking(entry.getKey(), arrival, entry.getValue()[1]));
+                } catch (UnprocessableEntityException e) {
+                    // overlapping records must not keep the application from starting; the reservation
+                    // is dropped from it, so the startup reconciliation with the database sees it as missing
+                    log.warn("Reservation {} replayed from journal {} cannot be restored and is skipped: {}", entry.getKey(), directory, e.getMessage());
+                    entries.remove();
+                }
+            }
+        }
+        // what was just replayed goes into the snapshot, so the next start only replays what is written from now on
+        journal.compact(bookings, today);
+    }
+
+    // writes are serialized so that the journal order is the order in which the index changed
+    @Override
+    public synchronized Booking save(Booking booking) {
+        index.save(booking);
+        record(OccupancyJournal.SAVE, booking);
+        return booking;
+    }
+
+    @Override
+    public synchronized Booking update(Booking booking) {
+        index.update(booking);
+        record(OccupancyJournal.UPDATE, booking);
+        return booking;
+    }
+
+    @Override
+    public synchronized void cancel(Booking booking) {
+        index.cancel(booking);
+        record(OccupancyJournal.CANCEL, booking);
+    }
+
+    // only the confirmed booking is journaled, a provisional claim would not outlive the request that made it
+    @Override
+    public synchronized Booking confirm(Booking claim, Long reservationId) {
+        Booking booking = index.confirm(claim, reservationId);
+        record(OccupancyJournal.SAVE, booking);
+        return booking;
+    }
+
+    @Override
+    public boolean isRestored() {
+        return restored;
+    }
+
+    // nights already spent are compared as the booking index loader trims them
+    @Override
+    public synchronized boolean holds(Booking booking) {
+        long[] nights = bookings.get(booking.getReservationId());
+        return nights != null
+                && Math.max(nights[0], today()) == booking.getArrivalDate().toLocalDate().toEpochDay()
+                && nights[1] == booking.getDepartureDate().toLocalDate().toEpochDay();
+    }
+
+    @Override
+    public synchronized List<Booking> findRestoredBookings() {
+        long today = today();
+        List<Booking> restoredBookings = new ArrayList<>();
+        bookings.forEach((reservationId, nights) -> {
+            if (nights[1] > today) {
+                restoredBookings.add(booking(reservationId, Math.max(nights[0], today), nights[1]));
+            }
+        });
+        return restoredBookings;
+    }
+
+    @Override
+    public Flux<LocalDate> findAvailabilitiesBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        return index.findAvailabilitiesBetween(arrivalDate, departureDate);
+    }
+
+    @Override
+    public boolean contains(LocalDateTime bookingDate) {
+        return index.contains(bookingDate);
+    }
+
+    @Override
+    public boolean isRangeAvailable(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        return index.isRangeAvailable(arrivalDate, departureDate);
+    }
+
+    @Override
+    public BitSet findAvailabilityBitmapBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        return index.findAvailabilityBitmapBetween(arrivalDate, departureDate);
+    }
+
+    @Override
+    public Optional<FreeInterval> findFirstFreeWindow(LocalDateTime arrivalDate, LocalDateTime departureDate, int nights) {
+        return index.findFirstFreeWindow(arrivalDate, departureDate, nights);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.close();
+    }
+
+    private void record(int operation, Booking booking) {
+        long reservationId = booking.getReservationId();
+        if (reservationId < 0) {
+            return;
+        }
+        long arrival = booking.getArrivalDate().toLocalDate().toEpochDay();
+        long departure = booking.getDepartureDate().toLocalDate().toEpochDay();
+
+        OccupancyJournal.apply(bookings, operation, reservationId, arrival, departure);
+        if (!journal.append(operation, reservationId, arrival, departure)) {
+            journal.compact(bookings, today());
+        }
+    }
+
+    private long today() {
+        return LocalDate.now(clock).toEpochDay();
+    }
+
+    private static Booking booking(long reservationId, long arrival, long departure) {
+        return Booking.builder()
+                .reservationId(reservationId)
+                .arrivalDate(LocalDateTime.of(LocalDate.ofEpochDay(arrival), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.ofEpochDay(departure), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+    }
+}
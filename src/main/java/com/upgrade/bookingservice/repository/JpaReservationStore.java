@@ -0,0 +1,66 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.ConflictException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.Status;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+@Profile("!reactive")
+@RequiredArgsConstructor
+public class JpaReservationStore implements ReservationStore {
+
+    private static final int PAGE_SIZE = 500;
+
+    private final CustomerReservationRepository customerReservationRepository;
+    private final Scheduler persistenceScheduler;
+
+    @Override
+    public Mono<CustomerReservation> findById(Long reservationId) {
+        return Mono.fromCallable(() -> customerReservationRepository.findById(reservationId))
+                .subscribeOn(persistenceScheduler)
+                .flatMap(Mono::justOrEmpty);
+    }
+
+    // hibernate only updates the row if it still has the version the reservation was read with
+    @Override
+    public Mono<CustomerReservation> save(CustomerReservation reservation) {
+        return Mono.fromCallable(() -> customerReservationRepository.save(reservation))
+                .subscribeOn(persistenceScheduler)
+                .onErrorMap(OptimisticLockingFailureException.class, error -> new ConflictException(
+                        String.format("Reservation with id %s was modified concurrently", reservation.getId())));
+    }
+
+    // a single transaction, whose inserts hibernate sends as JDBC batches
+    @Override
+    public Mono<List<CustomerReservation>> saveAll(List<CustomerReservation> reservations) {
+        return Mono.fromCallable(() -> customerReservationRepository.saveAll(reservations))
+                .subscribeOn(persistenceScheduler);
+    }
+
+    // one page per round trip so that the whole history is never held in the persistence context at once
+    @Override
+    public Flux<CustomerReservation> findCompletedDepartingAfter(LocalDateTime departureDate) {
+        return findPage(departureDate, PageRequest.of(0, PAGE_SIZE, Sort.by("id")))
+                .expand(page -> page.hasNext() ? findPage(departureDate, page.nextPageable()) : Mono.empty())
+                .flatMapIterable(Slice::getContent);
+    }
+
+    private Mono<Slice<CustomerReservation>> findPage(LocalDateTime departureDate, Pageable pageable) {
+        return Mono.fromCallable(() -> customerReservationRepository.findByStatusAndDepartureDateAfter(Status.COMPLETED, departureDate, pageable))
+                .subscribeOn(persistenceScheduler);
+    }
+}
@@ -0,0 +1,172 @@
+package com.upgrade.bookingservice.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// append-only log of booking writes in a memory-mapped file, compacted into a snapshot file whenever it fills up;
+// the snapshot records the generation of the journal it covers, so a crash between both steps replays nothing twice
+class OccupancyJournal implements Closeable {
+
+    static final int SAVE = 1;
+    static final int UPDATE = 2;
+    static final int CANCEL = 3;
+
+    private static final int MAGIC = 0x4F4A524E;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 32;
+    private static final int ENTRY_BYTES = 24;
+
+    private final Path snapshotFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer journal;
+    private long generation;
+
+    OccupancyJournal(Path directory, int capacity) {
+        try {
+            Files.createDirectories(directory);
+            this.snapshotFile = directory.resolve("occupancy.snapshot");
+            this.channel = FileChannel.open(directory.resolve("occupancy.journal"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int records = Math.max((capacity - HEADER_BYTES) / RECORD_BYTES, 1);
+            this.journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) records * RECORD_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // loads the snapshot and then every intact journal record written after it
+    void replay(Map<Long, long[]> bookings) {
+        long snapshotGeneration = readSnapshot(bookings);
+        if (journal.getInt(0) != MAGIC || journal.getLong(8) <= snapshotGeneration) {
+            reset(snapshotGeneration + 1);
+            return;
+        }
+        generation = journal.getLong(8);
+        journal.position(HEADER_BYTES);
+        while (journal.remaining() >= RECORD_BYTES) {
+            int start = journal.position();
+            int operation = journal.getInt();
+            long reservationId = journal.getLong();
+            long arrival = journal.getLong();
+            long departure = journal.getLong();
+            int checksum = journal.getInt();
+            // unwritten space, or a record torn by a crash in the middle of an append
+            if (operation == 0 || checksum != checksum(operation, reservationId, arrival, departure)) {
+                journal.position(start);
+                break;
+            }
+            apply(bookings, operation, reservationId, arrival, departure);
+        }
+        for (int i = journal.position(); i < journal.capacity(); i++) {
+            journal.put(i, (byte) 0);
+        }
+    }
+
+    // returns false when the journal is full and has to be compacted first; the record is left to the page cache, only
+    // compaction and close force it to the disk
+    boolean append(int operation, long reservationId, long arrival, long departure) {
+        if (journal.remaining() < RECORD_BYTES) {
+            return false;
+        }
+        int start = journal.position();
+        journal.putLong(start + 4, reservationId);
+        journal.putLong(start + 12, arrival);
+        journal.putLong(start + 20, departure);
+        journal.putInt(start + 28, checksum(operation, reservationId, arrival, departure));
+        // the operation is written last, a record only becomes visible to replay once complete
+        journal.putInt(start, operation);
+        journal.position(start + RECORD_BYTES);
+        return true;
+    }
+
+    // bookings that have already departed are dropped, this is what keeps the snapshot bounded
+    void compact(Map<Long, long[]> bookings, long today) {
+        bookings.values().removeIf(nights -> nights[1] <= today);
+        writeSnapshot(bookings);
+        reset(generation + 1);
+    }
+
+    static void apply(Map<Long, long[]> bookings, int operation, long reservationId, long arrival, long departure) {
+        if (operation == CANCEL) {
+            bookings.remove(reservationId);
+        } else {
+            bookings.put(reservationId, new long[]{arrival, departure});
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.force();
+        channel.close();
+    }
+
+    private void reset(long nextGeneration) {
+        for (int i = HEADER_BYTES; i < journal.capacity(); i++) {
+            journal.put(i, (byte) 0);
+        }
+        journal.putLong(8, nextGeneration);
+        journal.putInt(4, 1);
+        journal.putInt(0, MAGIC);
+        journal.force();
+        journal.position(HEADER_BYTES);
+        generation = nextGeneration;
+    }
+
+    private long readSnapshot(Map<Long, long[]> bookings) {
+        if (!Files.exists(snapshotFile)) {
+            return 0L;
+        }
+        try {
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+            if (snapshot.getInt() != MAGIC) {
+                throw new IllegalStateException("Corrupted occupancy snapshot " + snapshotFile);
+            }
+            long snapshotGeneration = snapshot.getLong();
+            int entries = snapshot.getInt();
+            for (int i = 0; i < entries; i++) {
+                bookings.put(snapshot.getLong(), new long[]{snapshot.getLong(), snapshot.getLong()});
+            }
+            return snapshotGeneration;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeSnapshot(Map<Long, long[]> bookings) {
+        ByteBuffer snapshot = ByteBuffer.allocate(16 + bookings.size() * ENTRY_BYTES);
+        snapshot.putInt(MAGIC).putLong(generation).putInt(bookings.size());
+        bookings.forEach((reservationId, nights) -> snapshot.putLong(reservationId).putLong(nights[0]).putLong(nights[1]));
+        snapshot.flip();
+
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                out.write(snapshot);
+            }
+            out.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int checksum(int operation, long reservationId, long arrival, long departure) {
+        CRC32 crc = new CRC32();
+        ByteBuffer record = ByteBuffer.allocate(28).putInt(operation).putLong(reservationId).putLong(arrival).putLong(departure);
+        crc.update(record.array(), 0, record.capacity());
+        return (int) crc.getValue();
+    }
+}
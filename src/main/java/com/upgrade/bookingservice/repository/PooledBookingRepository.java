@@ -0,0 +1,253 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.util.Constants;
+import reactor.core.publisher.Flux;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.LongStream;
+
+// a site made of several identical units: each night only counts the units taken, which reservation holds which one
+// does not matter
+public class PooledBookingRepository implements BookingRepository {
+
+    // each slot packs the number of units taken with the low bits of the epoch day it counts for,
+    // so slots left behind by the rolling window read as empty without ever being cleared
+    private static final int DAY_BITS = 16;
+    private static final long DAY_MASK = (1L << DAY_BITS) - 1;
+
+    private final Clock clock;
+    private final int units;
+    private final AtomicLongArray nights = new AtomicLongArray(Constants.BOOKING_WINDOW_DAYS);
+    // arrival and departure epoch days of every reservation holding units, needed to give them back
+    private final Map<Long, long[]> reservations = new ConcurrentHashMap<>();
+
+    public PooledBookingRepository(int units) {
+        this(Clock.systemDefaultZone(), units);
+    }
+
+    PooledBookingRepository(Clock clock, int units) {
+        if (units < 1) {
+            throw new IllegalArgumentException("A pooled site has at least one unit");
+        }
+        this.clock = clock;
+        this.units = units;
+    }
+
+    @Override
+    public Booking save(Booking booking) {
+        if (reservations.containsKey(booking.getReservationId())) {
+            return update(booking);
+        }
+        long arrival = toEpochDay(booking.getArrivalDate());
+        long departure = toEpochDay(booking.getDepartureDate());
+        checkWindow(arrival, departure);
+
+        take(arrival, departure, null);
+        reservations.put(booking.getReservationId(), new long[]{arrival, departure});
+        return booking;
+    }
+
+    // only the nights gained are taken and only the nights lost are given back, the nights kept are never counted twice
+    @Override
+    public Booking update(Booking booking) {
+        long arrival = toEpochDay(booking.getArrivalDate());
+        long departure = toEpochDay(booking.getDepartureDate());
+        checkWindow(arrival, departure);
+
+        long[] previous = reservations.get(booking.getReservationId());
+        take(arrival, departure, previous);
+        reservations.put(booking.getReservationId(), new long[]{arrival, departure});
+        if (previous != null) {
+            giveBack(previous[0], previous[1], new long[]{arrival, departure});
+        }
+        return booking;
+    }
+
+    // the units change owner without being given back, so the nights never look less booked in between
+    @Override
+    public Booking confirm(Booking claim, Long reservationId) {
+        long[] nights = reservations.remove(claim.getReservationId());
+        if (nights != null) {
+            reservations.put(reservationId, nights);
+        }
+        return Booking.builder()
+                .siteId(claim.getSiteId())
+                .arrivalDate(claim.getArrivalDate())
+                .departureDate(claim.getDepartureDate())
+                .reservationId(reservationId)
+                .build();
+    }
+
+    @Override
+    public void cancel(Booking booking) {
+        long[] previous = reservations.remove(booking.getReservationId());
+        if (previous != null) {
+            giveBack(previous[0], previous[1], null);
+        }
+    }
+
+    @Override
+    public Flux<LocalDate> findAvailabilitiesBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        long today = today();
+        return Flux.fromStream(LongStream.range(toEpochDay(arrivalDate), toEpochDay(departureDate))
+                .filter(day -> remaining(today, day) > 0)
+                .mapToObj(LocalDate::ofEpochDay));
+    }
+
+    @Override
+    public boolean contains(LocalDateTime bookingDate) {
+        return remaining(today(), toEpochDay(bookingDate)) == 0;
+    }
+
+    @Override
+    public boolean isRangeAvailable(LocalDateTime arrival, LocalDateTime departure) {
+        long today = today();
+        long to = toEpochDay(departure);
+        for (long day = toEpochDay(arrival); day < to; day++) {
+            if (remaining(today, day) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BitSet findAvailabilityBitmapBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        long today = today();
+        long arrival = toEpochDay(arrivalDate);
+        int length = (int) Math.max(toEpochDay(departureDate) - arrival, 0);
+        BitSet free = new BitSet(length);
+        for (int i = 0; i < length; i++) {
+            if (remaining(today, arrival + i) > 0) {
+                free.set(i);
+            }
+        }
+        return free;
+    }
+
+    @Override
+    public int[] findRemainingUnitsBetween(LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        long today = today();
+        long arrival = toEpochDay(arrivalDate);
+        int[] remaining = new int[(int) Math.max(toEpochDay(departureDate) - arrival, 0)];
+        for (int i = 0; i < remaining.length; i++) {
+            remaining[i] = remaining(today, arrival + i);
+        }
+        return remaining;
+    }
+
+    @Override
+    public int indexSize() {
+        return reservations.size();
+    }
+
+    // the night counters are reused by the rolling window, only the ranges of departed reservations pile up
+    @Override
+    public int evictPastNights() {
+        long today = today();
+        int evicted = 0;
+        for (Map.Entry<Long, long[]> reservation : reservations.entrySet()) {
+            if (reservation.getValue()[1] <= today && reservations.remove(reservation.getKey(), reservation.getValue())) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    // takes one unit of every night of the range not already held, or none of them
+    private void take(long arrival, long departure, long[] held) {
+        for (long day = arrival; day < departure; day++) {
+            if (isHeld(held, day)) {
+                continue;
+            }
+            int slot = slot(day);
+            while (true) {
+                long current = nights.get(slot);
+                int taken = taken(current, day);
+                if (taken >= units) {
+                    rollback(arrival, day, held);
+                    throw new UnprocessableEntityException(UnprocessableEntityException.Reason.CONFLICT, String.format("Requested range of dates is in conflict on day %s", LocalDate.ofEpochDay(day)));
+                }
+                if (nights.compareAndSet(slot, current, pack(taken + 1, day))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void rollback(long arrival, long departure, long[] held) {
+        for (long day = arrival; day < departure; day++) {
+            if (!isHeld(held, day)) {
+                release(day);
+            }
+        }
+    }
+
+    // past nights are left to the rolling window
+    private void giveBack(long arrival, long departure, long[] kept) {
+        long today = today();
+        for (long day = Math.max(arrival, today); day < Math.min(departure, today + nights.length()); day++) {
+            if (!isHeld(kept, day)) {
+                release(day);
+            }
+        }
+    }
+
+    private void release(long day) {
+        int slot = slot(day);
+        while (true) {
+            long current = nights.get(slot);
+            int taken = taken(current, day);
+            if (taken == 0 || nights.compareAndSet(slot, current, pack(taken - 1, day))) {
+                return;
+            }
+        }
+    }
+
+    // nights outside the booking window read as free, as in every other booking index; they cannot be booked anyway
+    private int remaining(long today, long day) {
+        if (day < today || day >= today + nights.length()) {
+            return units;
+        }
+        return units - taken(nights.get(slot(day)), day);
+    }
+
+    private void checkWindow(long arrival, long departure) {
+        long today = today();
+        if (arrival < today || departure > today + nights.length()) {
+            throw new UnprocessableEntityException(UnprocessableEntityException.Reason.OUTSIDE_BOOKING_WINDOW, "Requested range of dates is outside of the booking window");
+        }
+    }
+
+    private int slot(long day) {
+        return (int) Math.floorMod(day, (long) nights.length());
+    }
+
+    private long today() {
+        return LocalDate.now(clock).toEpochDay();
+    }
+
+    private static boolean isHeld(long[] held, long day) {
+        return held != null && day >= held[0] && day < held[1];
+    }
+
+    private static int taken(long value, long day) {
+        return (value & DAY_MASK) == (day & DAY_MASK) ? (int) (value >>> DAY_BITS) : 0;
+    }
+
+    private static long pack(int taken, long day) {
+        return (long) taken << DAY_BITS | (day & DAY_MASK);
+    }
+
+    private static long toEpochDay(LocalDateTime dateTime) {
+        return dateTime.toLocalDate().toEpochDay();
+    }
+}
@@ -0,0 +1,20 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.model.CustomerReservation;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ReservationStore {
+
+    Mono<CustomerReservation> findById(Long reservationId);
+
+    Mono<CustomerReservation> save(CustomerReservation reservation);
+
+    // new reservations only, persisted together and returned in the given order
+    Mono<List<CustomerReservation>> saveAll(List<CustomerReservation> reservations);
+
+    Flux<CustomerReservation> findCompletedDepartingAfter(LocalDateTime departureDate);
+}
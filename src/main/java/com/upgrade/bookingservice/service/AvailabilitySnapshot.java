@@ -0,0 +1,79 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.model.AvailabilityChange;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// immutable view of the free nights of the booking window, replaced as a whole on every occupancy change or new day
+public final class AvailabilitySnapshot {
+
+    static final AvailabilitySnapshot EMPTY = new AvailabilitySnapshot(0L, Long.MIN_VALUE, 0, new BitSet());
+
+    private final long version;
+    private final long firstDay;
+    private final int length;
+    private final BitSet free;
+
+    AvailabilitySnapshot(long version, long firstDay, int length, BitSet free) {
+        this.version = version;
+        this.firstDay = firstDay;
+        this.length = length;
+        this.free = free;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getBookedNights() {
+        return length - free.cardinality();
+    }
+
+    public LocalDate getFirstNight() {
+        return LocalDate.ofEpochDay(firstDay);
+    }
+
+    boolean startsOn(long day) {
+        return firstDay == day;
+    }
+
+    // nights outside of the booking window are reported free, as the repositories do
+    public boolean isFree(LocalDate night) {
+        long offset = night.toEpochDay() - firstDay;
+        return offset < 0 || offset >= length || free.get((int) offset);
+    }
+
+    public BitSet freeNightsBetween(LocalDate start, LocalDate end) {
+        int nights = (int) Math.max(end.toEpochDay() - start.toEpochDay(), 0);
+        long from = start.toEpochDay() - firstDay;
+        if (from >= 0 && from + nights <= length) {
+            return free.get((int) from, (int) from + nights);
+        }
+        BitSet slice = new BitSet(nights);
+        for (int i = 0; i < nights; i++) {
+            if (isFree(start.plusDays(i))) {
+                slice.set(i);
+            }
+        }
+        return slice;
+    }
+
+    // nights of this window whose state differs from the previous snapshot of the same site
+    AvailabilityChange changesSince(Long siteId, AvailabilitySnapshot previous) {
+        List<LocalDate> booked = new ArrayList<>();
+        List<LocalDate> freed = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            LocalDate night = LocalDate.ofEpochDay(firstDay + i);
+            boolean wasFree = previous.isFree(night);
+            if (wasFree && !free.get(i)) {
+                booked.add(night);
+            } else if (!wasFree && free.get(i)) {
+                freed.add(night);
+            }
+        }
+        return new AvailabilityChange(siteId, version, booked, freed);
+    }
+}
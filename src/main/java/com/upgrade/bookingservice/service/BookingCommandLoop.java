@@ -0,0 +1,204 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.ServiceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// every booking index mutation is applied by a single writer thread, in submission order and in batches; submitting
+// never takes a lock, and the availability of a site is published once per batch however many writes it held.
+// The queue is an unbounded lock-free list whose admissions are counted, not a fixed-size ring: only new claims are
+// bounded by the buffer size, while the writes that record what the database already committed, and the undo of a
+// claim nobody took, must always find room, which a full ring could not guarantee
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "booking.writer.mode", havingValue = "single-writer")
+public class BookingCommandLoop {
+
+    private static final int PENDING = 0;
+    private static final int APPLIED = 1;
+    private static final int CANCELLED = 2;
+
+    private final int capacity;
+    private final int batchSize;
+    private final ReservationMetrics reservationMetrics;
+
+    private final Queue<Command<?>> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    // callers resume here, the writer thread never runs their pipelines
+    private final Scheduler completions = Schedulers.parallel();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public BookingCommandLoop(@Value("${booking.writer.buffer-size:8192}") int capacity,
+                              @Value("${booking.writer.batch-size:256}") int batchSize,
+                              ReservationMetrics reservationMetrics) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.reservationMetrics = reservationMetrics;
+        reservationMetrics.gauge("booking.writer.pending", "Booking writes waiting for the writer thread", pending, AtomicInteger::get);
+        this.writer = new Thread(this::drain, "booking-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // a full buffer is refused rather than waited on; a caller leaving after its mutation was applied gets it undone
+    public <T> Mono<T> submit(Long siteId, Supplier<T> mutation, Consumer<Long> publish, Consumer<T> undo) {
+        return Mono.create(sink -> {
+            if (pending.incrementAndGet() > capacity || !running) {
+                pending.decrementAndGet();
+                sink.error(new ServiceUnavailableException("Too many booking writes in progress, retry later"));
+                return;
+            }
+            Command<T> command = new Command<>(siteId, mutation, publish, undo, sink, false);
+            sink.onCancel(() -> cancel(command));
+            enqueue(command);
+        });
+    }
+
+    // a write following a persisted change is never refused for a full buffer and is applied even if its caller left:
+    // dropping it would leave the booking index disagreeing with the database until restart
+    public <T> Mono<T> submitPersisted(Long siteId, Supplier<T> mutation, Consumer<Long> publish) {
+        return Mono.create(sink -> {
+            if (!running) {
+                sink.error(new ServiceUnavailableException("Booking writer is shutting down"));
+                return;
+            }
+            pending.incrementAndGet();
+            enqueue(new Command<>(siteId, mutation, publish, null, sink, true));
+        });
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private void enqueue(Command<?> command) {
+        commands.offer(command);
+        LockSupport.unpark(writer);
+    }
+
+    private <T> void cancel(Command<T> command) {
+        if (command.state.compareAndSet(PENDING, CANCELLED) || command.undo == null) {
+            return;
+        }
+        pending.incrementAndGet();
+        enqueue(new Command<>(command.siteId, () -> {
+            command.undo.accept(command.result);
+            return command.result;
+        }, command.publish, null, null, true));
+    }
+
+    private void drain() {
+        List<Command<?>> batch = new ArrayList<>(batchSize);
+        while (running) {
+            Command<?> command;
+            while (batch.size() < batchSize && (command = commands.poll()) != null) {
+                batch.add(command);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            pending.addAndGet(-batch.size());
+            apply(batch);
+            batch.clear();
+        }
+        Command<?> command;
+        while ((command = commands.poll()) != null) {
+            command.error = new ServiceUnavailableException("Booking writer is shutting down");
+            completions.schedule(command::complete);
+        }
+    }
+
+    private void apply(List<Command<?>> batch) {
+        Map<Long, Consumer<Long>> publications = new LinkedHashMap<>();
+        for (Command<?> command : batch) {
+            if (command.apply() && command.publish != null) {
+                publications.putIfAbsent(command.siteId, command.publish);
+            }
+        }
+        publications.forEach((siteId, publish) -> {
+            try {
+                publish.accept(siteId);
+            } catch (RuntimeException e) {
+                log.error("Couldn't publish the availability of site {}", siteId, e);
+            }
+        });
+        reservationMetrics.recordWriterBatch(batch.size());
+        batch.forEach(command -> completions.schedule(command::complete));
+    }
+
+    private static final class Command<T> {
+
+        private final Long siteId;
+        private final Supplier<T> mutation;
+        private final Consumer<Long> publish;
+        private final Consumer<T> undo;
+        private final MonoSink<T> sink;
+        // applied whatever happens to its caller
+        private final boolean persisted;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private volatile T result;
+        private volatile RuntimeException error;
+
+        private Command(Long siteId, Supplier<T> mutation, Consumer<Long> publish, Consumer<T> undo, MonoSink<T> sink, boolean persisted) {
+            this.siteId = siteId;
+            this.mutation = mutation;
+            this.publish = publish;
+            this.undo = undo;
+            this.sink = sink;
+            this.persisted = persisted;
+        }
+
+        // runs on the writer thread, returns whether the index was changed
+        private boolean apply() {
+            if (state.get() == CANCELLED && !persisted) {
+                return false;
+            }
+            try {
+                result = mutation.get();
+            } catch (RuntimeException e) {
+                error = e;
+                return false;
+            }
+            // cancelled while the mutation ran: nobody will take the result, so it is undone before the batch publishes
+            if (!state.compareAndSet(PENDING, APPLIED) && undo != null) {
+                undo.accept(result);
+            }
+            return true;
+        }
+
+        private void complete() {
+            if (sink == null) {
+                return;
+            }
+            if (error != null) {
+                sink.error(error);
+            } else {
+                sink.success(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ReservationStore;
+import com.upgrade.bookingservice.util.Constants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BookingIndexLoader implements HealthIndicator {
+
+    private final ReservationStore reservationStore;
+    private final BookingShards bookingShards;
+    private final BookingService bookingService;
+
+    private volatile Health health = Health.outOfService().build();
+
+    // the context is refreshed before the web server starts, so no request can see a partially rebuilt index
+    @EventListener(ContextRefreshedEvent.class)
+    public void load() {
+        long started = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime firstNight = LocalDateTime.of(now.toLocalDate(), Constants.DEFAULT_CHECK_IN_TIME);
+        AtomicLong loaded = new AtomicLong();
+        AtomicLong restored = new AtomicLong();
+        AtomicLong reconciled = new AtomicLong();
+        AtomicLong conflicts = new AtomicLong();
+        AtomicLong unknownSites = new AtomicLong();
+        AtomicLong released = new AtomicLong();
+        Map<Long, Set<Long>> completed = new HashMap<>();
+
+        reservationStore.findCompletedDepartingAfter(now)
+                .map(reservation -> toBooking(reservation, firstNight))
+                .filter(booking -> booking.getArrivalDate().toLocalDate().isBefore(booking.getDepartureDate().toLocalDate()))
+                .doOnNext(booking -> {
+                    try {
+                        Long siteId = bookingShards.resolve(booking.getSiteId());
+                        completed.computeIfAbsent(siteId, id -> new HashSet<>()).add(booking.getReservationId());
+                        BookingRepository shard = bookingShards.forSite(siteId);
+                        if (!shard.isRestored()) {
+                            shard.save(booking);
+                            loaded.incrementAndGet();
+                        } else if (shard.holds(booking)) {
+                            restored.incrementAndGet();
+                        } else {
+                            // the database is the record: the journal may have lost its last unforced records to a crash
+                            log.warn("Reservation {} is missing from, or holds other nights in, the journal of site {}; its database dates are restored",
+                                    booking.getReservationId(), booking.getSiteId());
+                            shard.update(booking);
+                            reconciled.incrementAndGet();
+                        }
+                    } catch (UnprocessableEntityException e) {
+                        conflicts.incrementAndGet();
+                    } catch (NotFoundException e) {
+                        // the site is no longer configured
+                        unknownSites.incrementAndGet();
+                    }
+                })
+                .blockLast();
+        // a journaled reservation the database no longer holds as completed was cancelled, or never committed
+        for (Long siteId : bookingShards.getSiteIds()) {
+            BookingRepository shard = bookingShards.forSite(siteId);
+            Set<Long> reservationIds = completed.getOrDefault(siteId, Collections.emptySet());
+            for (Booking booking : shard.findRestoredBookings()) {
+                if (!reservationIds.contains(booking.getReservationId())) {
+                    log.warn("Reservation {} is held in the journal of site {} but is not completed in the database; its nights are freed",
+                            booking.getReservationId(), siteId);
+                    shard.cancel(booking);
+                    released.incrementAndGet();
+                }
+            }
+        }
+        bookingService.refreshAvailabilities();
+
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        health = Health.up()
+                .withDetail("reservations", loaded.get())
+                .withDetail("restoredFromJournal", restored.get())
+                .withDetail("reconciledWithDatabase", reconciled.get())
+                .withDetail("releasedFromJournal", released.get())
+                .withDetail("conflicts", conflicts.get())
+                .withDetail("unknownSites", unknownSites.get())
+                .withDetail("loadTimeMillis", elapsedMillis)
+                .build();
+        log.info("Loaded {} reservations into the booking index in {} ms ({} already restored from journals, {} reconciled with the database, {} released from journals, {} conflicting, {} for unknown sites)",
+                loaded.get(), elapsedMillis, restored.get(), reconciled.get(), released.get(), conflicts.get(), unknownSites.get());
+    }
+
+    @Override
+    public Health health() {
+        return health;
+    }
+
+    // nights already spent are not part of the booking window any more
+    private static Booking toBooking(CustomerReservation reservation, LocalDateTime firstNight) {
+        LocalDateTime arrivalDate = reservation.getArrivalDate().isBefore(firstNight) ? firstNight : reservation.getArrivalDate();
+        return Booking.builder()
+                .reservationId(reservation.getId())
+                .siteId(reservation.getSiteId())
+                .arrivalDate(arrivalDate)
+                .departureDate(reservation.getDepartureDate())
+                .build();
+    }
+}
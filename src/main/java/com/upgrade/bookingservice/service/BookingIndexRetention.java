@@ -0,0 +1,30 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BookingIndexRetention {
+
+    private final BookingShards bookingShards;
+    private final ReservationMetrics reservationMetrics;
+
+    // an hourly tick catches the change of day within the hour whatever the time zone of the host
+    @Scheduled(fixedDelayString = "${booking.retention.interval-ms:3600000}", initialDelayString = "${booking.retention.interval-ms:3600000}")
+    public void evictPastNights() {
+        for (Long siteId : bookingShards.getSiteIds()) {
+            BookingRepository bookingRepository = bookingShards.forSite(siteId);
+            int evicted = bookingRepository.evictPastNights();
+            reservationMetrics.recordEviction(evicted);
+            if (evicted > 0) {
+                log.info("Evicted {} past nights from the booking index of site {}, {} entries retained", evicted, siteId, bookingRepository.indexSize());
+            }
+        }
+    }
+}
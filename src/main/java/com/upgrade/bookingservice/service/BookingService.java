@@ -1,18 +1,47 @@
 package com.upgrade.bookingservice.service;
 
+import com.upgrade.bookingservice.model.AvailabilityChange;
+import com.upgrade.bookingservice.model.Booking;
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.model.NightCapacity;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.List;
 
 public interface BookingService {
-    Mono<CustomerReservation> createBooking(CustomerReservation reservation);
+    Mono<Booking> claimBooking(CustomerReservation reservation);
 
-    Mono<CustomerReservation> updateBooking(CustomerReservation reservation);
+    Mono<CustomerReservation> confirmBooking(Booking claim, CustomerReservation reservation);
+
+    Mono<Void> releaseBooking(Booking claim);
+
+    Mono<List<Booking>> claimRebooking(CustomerReservation previous, CustomerReservation reservation);
+
+    Mono<CustomerReservation> updateBooking(CustomerReservation reservation, List<Booking> claims);
 
     Mono<CustomerReservation> cancelBooking(CustomerReservation reservation);
 
-    Flux<LocalDate> findAvailabilitiesBetween(LocalDate start, LocalDate end);
+    Flux<LocalDate> findAvailabilitiesBetween(Long siteId, LocalDate start, LocalDate end);
+
+    Mono<BitSet> findAvailabilityBitmapBetween(Long siteId, LocalDate start, LocalDate end);
+
+    Flux<FreeInterval> findFreeIntervalsBetween(Long siteId, LocalDate start, LocalDate end);
+
+    Mono<FreeInterval> findFirstFreeWindow(Long siteId, LocalDate start, LocalDate end, int nights);
+
+    Flux<NightCapacity> findCapacityBetween(Long siteId, LocalDate start, LocalDate end);
+
+    Flux<Long> findSitesAvailableBetween(LocalDate start, LocalDate end);
+
+    long getOccupancyVersion(Long siteId);
+
+    long getOccupancyEpoch();
+
+    void refreshAvailabilities();
+
+    Flux<AvailabilityChange> availabilityChanges();
 }
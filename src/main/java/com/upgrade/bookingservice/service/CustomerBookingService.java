@@ -1,42 +1,112 @@
 package com.upgrade.bookingservice.service;
 
 import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.AvailabilityChange;
 import com.upgrade.bookingservice.model.Booking;
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.model.NightCapacity;
 import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
 import com.upgrade.bookingservice.util.Constants;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import javax.annotation.PostConstruct;
+import java.security.SecureRandom;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
 public class CustomerBookingService implements BookingService {
 
-    private final BookingRepository bookingRepository;
+    private final BookingShards bookingShards;
+    private final ReservationMetrics reservationMetrics;
+    private final Optional<BookingCommandLoop> commandLoop;
 
+    // persisted reservations have positive ids, provisional claims count downwards from -1
+    private final AtomicLong provisionalIds = new AtomicLong();
 
+    private final Map<Long, AtomicReference<AvailabilitySnapshot>> snapshots = new ConcurrentHashMap<>();
+    // occupancy versions start over on every boot and on every instance, only versions of the same epoch can be compared
+    private final long epoch = new SecureRandom().nextLong();
+
+    private final DirectProcessor<AvailabilityChange> changes = DirectProcessor.create();
+    private final FluxSink<AvailabilityChange> changeSink = changes.sink();
+
+    @PostConstruct
+    void registerGauges() {
+        for (Long siteId : bookingShards.getSiteIds()) {
+            String site = String.valueOf(siteId);
+            reservationMetrics.gauge("booking.nights.booked", "Nights of the booking window that are booked", this,
+                    service -> service.currentSnapshot(siteId).getBookedNights(), "site", site);
+            reservationMetrics.gauge("booking.index.size", "Entries held by the booking index", bookingShards.forSite(siteId),
+                    BookingRepository::indexSize, "site", site);
+        }
+    }
+
+    // the nights are held under a provisional id until the reservation is persisted and gets its own
     @Override
-    public Mono<CustomerReservation> createBooking(CustomerReservation reservation) {
-        return Mono.just(reservation)
-                .filter(res -> bookingRepository.isRangeAvailable(res.getArrivalDate(), res.getDepartureDate()))
-                .switchIfEmpty(Mono.error(new UnprocessableEntityException("Requested range of dates is unavailable")))
-                .map(convertReservationToBooking)
-                .doOnNext(bookingRepository::save)
+    public Mono<Booking> claimBooking(CustomerReservation reservation) {
+        return Mono.fromSupplier(() -> bookingShards.resolve(reservation.getSiteId()))
+                .flatMap(siteId -> write(siteId, () -> claim(siteId, reservation.getArrivalDate(), reservation.getDepartureDate()), true,
+                        claim -> bookingShards.forSite(siteId).cancel(claim)));
+    }
+
+    // the claimed nights do not change hands visibly, so the snapshot stays as it is
+    @Override
+    public Mono<CustomerReservation> confirmBooking(Booking claim, CustomerReservation reservation) {
+        return write(claim.getSiteId(), () -> bookingShards.forSite(claim.getSiteId()).confirm(claim, reservation.getId()), false, null)
                 .thenReturn(reservation);
     }
 
     @Override
-    public Mono<CustomerReservation> updateBooking(CustomerReservation reservation) {
+    public Mono<Void> releaseBooking(Booking claim) {
+        return write(claim.getSiteId(), () -> {
+            bookingShards.forSite(claim.getSiteId()).cancel(claim);
+            return claim;
+        }, true, null).then();
+    }
+
+    // only the nights of the new dates that the reservation does not hold yet are claimed, all of them or none; the
+    // reservation keeps its own nights until the update is persisted
+    @Override
+    public Mono<List<Booking>> claimRebooking(CustomerReservation previous, CustomerReservation reservation) {
+        return Mono.fromSupplier(() -> bookingShards.resolve(reservation.getSiteId()))
+                .flatMap(siteId -> write(siteId, () -> claimNightsNotHeld(siteId, previous, reservation), true,
+                        claims -> claims.forEach(bookingShards.forSite(siteId)::cancel)));
+    }
+
+    // the claims and the nights left behind are given up in the same write that moves the reservation, so none of its
+    // nights is ever seen free in between
+    @Override
+    public Mono<CustomerReservation> updateBooking(CustomerReservation reservation, List<Booking> claims) {
         return Mono.just(reservation)
                 .map(convertReservationToBooking)
-                .doOnNext(bookingRepository::update)
+                .flatMap(booking -> write(bookingShards.resolve(booking.getSiteId()), () -> {
+                    BookingRepository bookingRepository = bookingShards.forSite(booking.getSiteId());
+                    claims.forEach(bookingRepository::cancel);
+                    return bookingRepository.update(booking);
+                }, true, null))
                 .thenReturn(reservation);
     }
 
@@ -44,19 +114,184 @@ public class CustomerBookingService implements BookingService {
     public Mono<CustomerReservation> cancelBooking(CustomerReservation reservation) {
         return Mono.just(reservation)
                 .map(convertReservationToBooking)
-                .doOnNext(bookingRepository::cancel)
+                .flatMap(booking -> write(bookingShards.resolve(booking.getSiteId()), () -> {
+                    bookingShards.forSite(booking.getSiteId()).cancel(booking);
+                    return booking;
+                }, true, null))
                 .thenReturn(reservation);
     }
 
     @Override
-    public Flux<LocalDate> findAvailabilitiesBetween(LocalDate start, LocalDate end) {
+    public Flux<LocalDate> findAvailabilitiesBetween(Long siteId, LocalDate start, LocalDate end) {
+        return reservationMetrics.timed("find_availabilities", Flux.defer(() -> {
+            BitSet free = currentSnapshot(siteId).freeNightsBetween(start, end);
+            return Flux.fromStream(free.stream().mapToObj(start::plusDays));
+        }));
+    }
+
+    @Override
+    public Mono<BitSet> findAvailabilityBitmapBetween(Long siteId, LocalDate start, LocalDate end) {
+        return Mono.fromSupplier(() -> currentSnapshot(siteId).freeNightsBetween(start, end));
+    }
+
+    // interval, window and capacity queries only read the in-memory booking index, they are answered on the calling thread
+    @Override
+    public Flux<FreeInterval> findFreeIntervalsBetween(Long siteId, LocalDate start, LocalDate end) {
         LocalDateTime arrivalDate = LocalDateTime.of(start, Constants.DEFAULT_CHECK_IN_TIME);
         LocalDateTime departureDate = LocalDateTime.of(end, Constants.DEFAULT_CHECK_IN_TIME);
 
-        return bookingRepository.findAvailabilitiesBetween(arrivalDate, departureDate).subscribeOn(Schedulers.elastic());
+        return Flux.defer(() -> bookingShards.forSite(siteId).findFreeIntervalsBetween(arrivalDate, departureDate));
+    }
+
+    @Override
+    public Mono<FreeInterval> findFirstFreeWindow(Long siteId, LocalDate start, LocalDate end, int nights) {
+        LocalDateTime arrivalDate = LocalDateTime.of(start, Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(end, Constants.DEFAULT_CHECK_IN_TIME);
+
+        return Mono.defer(() -> Mono.justOrEmpty(bookingShards.forSite(siteId).findFirstFreeWindow(arrivalDate, departureDate, nights)));
+    }
+
+    @Override
+    public Flux<NightCapacity> findCapacityBetween(Long siteId, LocalDate start, LocalDate end) {
+        LocalDateTime arrivalDate = LocalDateTime.of(start, Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(end, Constants.DEFAULT_CHECK_IN_TIME);
+
+        return Flux.defer(() -> {
+            int[] remaining = bookingShards.forSite(siteId).findRemainingUnitsBetween(arrivalDate, departureDate);
+            return Flux.range(0, remaining.length).map(i -> new NightCapacity(start.plusDays(i), remaining[i]));
+        });
+    }
+
+    // every shard is checked on its own rail, sites come back in id order
+    @Override
+    public Flux<Long> findSitesAvailableBetween(LocalDate start, LocalDate end) {
+        int nights = (int) Math.max(end.toEpochDay() - start.toEpochDay(), 0);
+        return reservationMetrics.timed("find_available_sites", Flux.fromIterable(bookingShards.getSiteIds())
+                .flatMapSequential(siteId -> Mono.fromSupplier(() -> currentSnapshot(siteId).freeNightsBetween(start, end))
+                        .filter(free -> free.cardinality() == nights)
+                        .map(free -> siteId)
+                        .subscribeOn(Schedulers.parallel())));
+    }
+
+    @Override
+    public long getOccupancyVersion(Long siteId) {
+        return currentSnapshot(siteId).getVersion();
+    }
+
+    @Override
+    public long getOccupancyEpoch() {
+        return epoch;
+    }
+
+    // run once the index is loaded, so that the first write after startup already has a snapshot to be compared with
+    @Override
+    public void refreshAvailabilities() {
+        bookingShards.getSiteIds().forEach(this::refreshSnapshot);
+    }
+
+    // each subscriber gets its own bounded buffer, so a slow client loses its oldest changes instead of holding back the others
+    @Override
+    public Flux<AvailabilityChange> availabilityChanges() {
+        return changes.onBackpressureBuffer(Constants.AVAILABILITY_CHANGES_BUFFER_SIZE, BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    public AvailabilitySnapshot currentSnapshot(Long siteId) {
+        AvailabilitySnapshot current = snapshot(siteId).get();
+        return current.startsOn(LocalDate.now().toEpochDay()) ? current : refreshSnapshot(siteId);
+    }
+
+    // writers of a site are serialized here so that its changes are published in version order; readers never take
+    // this lock, and writers of other sites hold their own
+    AvailabilitySnapshot refreshSnapshot(Long siteId) {
+        Long resolved = bookingShards.resolve(siteId);
+        AtomicReference<AvailabilitySnapshot> snapshot = snapshot(resolved);
+        synchronized (snapshot) {
+            AvailabilitySnapshot previous = snapshot.get();
+            LocalDate today = LocalDate.now();
+            BitSet free = bookingShards.forSite(resolved).findAvailabilityBitmapBetween(
+                    LocalDateTime.of(today, Constants.DEFAULT_CHECK_IN_TIME),
+                    LocalDateTime.of(today.plusDays(Constants.BOOKING_WINDOW_DAYS), Constants.DEFAULT_CHECK_IN_TIME));
+            AvailabilitySnapshot next = new AvailabilitySnapshot(previous.getVersion() + 1, today.toEpochDay(), Constants.BOOKING_WINDOW_DAYS, free);
+            if (previous == AvailabilitySnapshot.EMPTY) {
+                snapshot.set(next);
+                return next;
+            }
+
+            // the version only moves with a published change, so a gap in the versions always means dropped events;
+            // a new day alone moves the window but changes no night that can still be asked for
+            AvailabilityChange change = next.changesSince(resolved, previous);
+            if (change.getBooked().isEmpty() && change.getFreed().isEmpty()) {
+                if (!previous.startsOn(today.toEpochDay())) {
+                    snapshot.set(new AvailabilitySnapshot(previous.getVersion(), today.toEpochDay(), Constants.BOOKING_WINDOW_DAYS, free));
+                }
+                return snapshot.get();
+            }
+            snapshot.set(next);
+            changeSink.next(change);
+            return next;
+        }
+    }
+
+    // index mutations run in place, or on the writer thread of the single writer mode, which publishes the snapshot of
+    // a site once per batch instead of once per write; the writes without an undo are the ones following a persisted
+    // change, which the writer never refuses nor drops
+    private <T> Mono<T> write(Long siteId, Supplier<T> mutation, boolean publishes, Consumer<T> undo) {
+        Consumer<Long> publish = publishes ? this::refreshSnapshot : null;
+        return commandLoop
+                .map(loop -> undo == null ? loop.submitPersisted(siteId, mutation, publish) : loop.submit(siteId, mutation, publish, undo))
+                .orElseGet(() -> Mono.fromSupplier(mutation).doOnSuccess(result -> {
+                    if (publish != null) {
+                        publish.accept(siteId);
+                    }
+                }));
+    }
+
+    private Booking claim(Long siteId, LocalDateTime arrivalDate, LocalDateTime departureDate) {
+        BookingRepository bookingRepository = bookingShards.forSite(siteId);
+        if (!bookingRepository.isRangeAvailable(arrivalDate, departureDate)) {
+            throw new UnprocessableEntityException(UnprocessableEntityException.Reason.UNAVAILABLE, "Requested range of dates is unavailable");
+        }
+        Booking booking = Booking.builder()
+                .siteId(siteId)
+                .arrivalDate(arrivalDate)
+                .departureDate(departureDate)
+                .reservationId(-provisionalIds.incrementAndGet())
+                .build();
+        bookingRepository.save(booking);
+        return booking;
+    }
+
+    // the new dates reach past the held ones on either side, or lie apart from them altogether
+    private List<Booking> claimNightsNotHeld(Long siteId, CustomerReservation previous, CustomerReservation reservation) {
+        LocalDate arrival = reservation.getArrivalDate().toLocalDate();
+        LocalDate departure = reservation.getDepartureDate().toLocalDate();
+        LocalDate heldFrom = previous.getArrivalDate().toLocalDate();
+        LocalDate heldUntil = previous.getDepartureDate().toLocalDate();
+        LocalTime checkIn = reservation.getArrivalDate().toLocalTime();
+        LocalTime checkOut = reservation.getDepartureDate().toLocalTime();
+        List<Booking> claims = new ArrayList<>();
+        try {
+            if (arrival.isBefore(heldFrom)) {
+                LocalDate until = departure.isBefore(heldFrom) ? departure : heldFrom;
+                claims.add(claim(siteId, LocalDateTime.of(arrival, checkIn), LocalDateTime.of(until, checkOut)));
+            }
+            if (departure.isAfter(heldUntil)) {
+                LocalDate from = arrival.isAfter(heldUntil) ? arrival : heldUntil;
+                claims.add(claim(siteId, LocalDateTime.of(from, checkIn), LocalDateTime.of(departure, checkOut)));
+            }
+        } catch (RuntimeException e) {
+            claims.forEach(bookingShards.forSite(siteId)::cancel);
+            throw e;
+        }
+        return claims;
+    }
+
+    private AtomicReference<AvailabilitySnapshot> snapshot(Long siteId) {
+        return snapshots.computeIfAbsent(bookingShards.resolve(siteId), resolved -> new AtomicReference<>(AvailabilitySnapshot.EMPTY));
     }
 
     Function<CustomerReservation, Booking> convertReservationToBooking = reservation -> Booking.builder()
+            .siteId(reservation.getSiteId())
             .arrivalDate(reservation.getArrivalDate())
             .departureDate(reservation.getDepartureDate())
             .reservationId(reservation.getId())
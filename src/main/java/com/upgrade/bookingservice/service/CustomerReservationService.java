@@ -1,60 +1,223 @@
 package com.upgrade.bookingservice.service;
 
+import com.upgrade.bookingservice.exception.ConflictException;
 import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.PreconditionFailedException;
 import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.ReservationOutcome;
 import com.upgrade.bookingservice.model.Status;
-import com.upgrade.bookingservice.repository.CustomerReservationRepository;
+import com.upgrade.bookingservice.repository.ReservationStore;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class CustomerReservationService implements ReservationService {
 
+    private static final int VERSION_CONFLICT_RETRIES = 3;
 
     private final BookingService bookingService;
-    private final CustomerReservationRepository customerReservationRepository;
+    private final ReservationStore reservationStore;
+    private final ReservationLocks reservationLocks;
+    private final ReservationMetrics reservationMetrics;
 
     @Override
     public Mono<CustomerReservation> findById(Long reservationId) {
-        return Mono.justOrEmpty(customerReservationRepository.findById(reservationId))
+        return reservationStore.findById(reservationId)
                 .switchIfEmpty(Mono.error(new NotFoundException(String.format("Couldn't find reservation with id %s", reservationId))));
     }
 
     @Override
-    synchronized public Mono<CustomerReservation> create(CustomerReservation reservation) {
-        return Mono.just(reservation)
+    public Mono<CustomerReservation> create(CustomerReservation reservation) {
+        return reservationMetrics.timed("create", Mono.just(reservation)
                 .doOnNext(res -> res.setStatus(Status.COMPLETED))
-                .map(customerReservationRepository::save)
-                .flatMap(bookingService::createBooking)
-                .switchIfEmpty(Mono.error(new UnprocessableEntityException("Requested range of dates is unavailable")));
+                .flatMap(res -> reservationLocks.onNights(() -> bookingService.claimBooking(res)
+                        .flatMap(claim -> persist(res, claim)), res))
+                .switchIfEmpty(Mono.error(new UnprocessableEntityException(UnprocessableEntityException.Reason.UNAVAILABLE, "Requested range of dates is unavailable"))));
+    }
+
+    // a rejected request never reaches the database, and a failed write gives its nights back; a caller leaving
+    // midway does not, the write may still commit
+    private Mono<CustomerReservation> persist(CustomerReservation reservation, Booking claim) {
+        return detached(reservationStore.save(reservation)
+                .onErrorResume(error -> bookingService.releaseBooking(claim).then(Mono.error(error)))
+                .flatMap(saved -> bookingService.confirmBooking(claim, saved)));
     }
 
+    // the nights of the whole batch are locked once and claimed in request order, so an item conflicting with an
+    // earlier one of the same batch is rejected like any other, as is an item for an unknown site; the items left
+    // are persisted together
     @Override
-    synchronized public Mono<CustomerReservation> update(CustomerReservation reservationUpdate) {
-        return Mono.justOrEmpty(customerReservationRepository.findById(reservationUpdate.getId()))
-                .switchIfEmpty(Mono.error(new NotFoundException(String.format("Couldn't find reservation with id %s", reservationUpdate.getId()))))
-                .filter(reservation -> reservation.getStatus().equals(Status.COMPLETED))
-                .switchIfEmpty(Mono.error(new UnprocessableEntityException(String.format("Reservation with id %s already cancelled", reservationUpdate.getId()))))
-                .doOnNext(reservation -> {
-                    reservation.setArrivalDate(reservationUpdate.getArrivalDate());
-                    reservation.setDepartureDate(reservationUpdate.getDepartureDate());
+    public Mono<List<ReservationOutcome>> createAll(List<CustomerReservation> reservations) {
+        return reservationMetrics.timed("create_batch", Mono.defer(() -> {
+            reservations.forEach(res -> res.setStatus(Status.COMPLETED));
+            return reservationLocks.onNights(() -> claimAll(reservations), reservations.toArray(new CustomerReservation[0]));
+        }));
+    }
+
+    // the claims made so far belong to the batch until persistAll takes them over, and whichever of the two settles
+    // first owns them: a rejection, a full writer buffer or a caller gone before the handover gives them back here,
+    // after it persistAll confirms or releases them once the batch write has an outcome
+    private Mono<List<ReservationOutcome>> claimAll(List<CustomerReservation> reservations) {
+        Map<CustomerReservation, RuntimeException> rejections = new IdentityHashMap<>();
+        List<Tuple2<CustomerReservation, Booking>> claims = new CopyOnWriteArrayList<>();
+        AtomicBoolean settled = new AtomicBoolean();
+        return Flux.fromIterable(reservations)
+                .concatMap(res -> bookingService.claimBooking(res)
+                        .map(claim -> Tuples.of(res, claim))
+                        .onErrorResume(error -> error instanceof UnprocessableEntityException || error instanceof NotFoundException, error -> {
+                            rejections.put(res, (RuntimeException) error);
+                            return Mono.empty();
+                        }))
+                .doOnNext(claims::add)
+                .then(Mono.defer(() -> settled.compareAndSet(false, true) ? persistAll(claims) : Mono.<List<CustomerReservation>>empty()))
+                .onErrorResume(error -> settled.compareAndSet(false, true) ? releaseAll(claims).then(Mono.error(error)) : Mono.error(error))
+                .doFinally(signal -> {
+                    if (signal == SignalType.CANCEL && settled.compareAndSet(false, true)) {
+                        releaseAll(claims).subscribe();
+                    }
                 })
-                .flatMap(bookingService::updateBooking)
-                .map(customerReservationRepository::save);
+                .map(created -> {
+                    Iterator<CustomerReservation> persisted = created.iterator();
+                    return reservations.stream()
+                            .map(res -> rejections.containsKey(res)
+                                    ? ReservationOutcome.rejected(res, rejections.get(res))
+                                    : ReservationOutcome.created(persisted.next()))
+                            .collect(Collectors.toList());
+                });
+    }
+
+    private Mono<List<CustomerReservation>> persistAll(List<Tuple2<CustomerReservation, Booking>> claims) {
+        if (claims.isEmpty()) {
+            return Mono.just(Collections.emptyList());
+        }
+        return detached(reservationStore.saveAll(claims.stream().map(Tuple2::getT1).collect(Collectors.toList()))
+                .onErrorResume(error -> releaseAll(claims).then(Mono.error(error)))
+                .flatMapMany(saved -> Flux.range(0, saved.size())
+                        .concatMap(i -> bookingService.confirmBooking(claims.get(i).getT2(), saved.get(i))))
+                .collectList());
+    }
+
+    private Mono<Void> releaseAll(List<Tuple2<CustomerReservation, Booking>> claims) {
+        return releaseClaims(claims.stream().map(Tuple2::getT2).collect(Collectors.toList()));
+    }
+
+    // a write that lost the race for the reservation is retried from a fresh read, unless the client pinned the version
+    // it read, which then no longer matches
+    @Override
+    public Mono<CustomerReservation> update(CustomerReservation reservationUpdate) {
+        return reservationMetrics.timed("update", retryOnConflict("update", reservationLocks.onReservation(reservationUpdate.getId(), () -> findCompleted(reservationUpdate.getId(), reservationUpdate.getVersion())
+                .flatMap(reservation -> reservationLocks.onNights(() -> reread(reservationUpdate.getId(), reservation)
+                        .flatMap(res -> {
+                            CustomerReservation previous = nightsOf(res);
+                            res.setArrivalDate(reservationUpdate.getArrivalDate());
+                            res.setDepartureDate(reservationUpdate.getDepartureDate());
+                            return bookingService.claimRebooking(previous, res)
+                                    .flatMap(claims -> persistUpdate(res, claims));
+                        }), reservation, rebooked(reservation, reservationUpdate))))));
+    }
+
+    // the reservation keeps its previous nights, next to the claimed ones, until the write has landed; whatever else
+    // happens, single writer mode included, those nights are never seen free while the database may still hold them,
+    // and the claims are only given back once the write is known to have failed
+    private Mono<CustomerReservation> persistUpdate(CustomerReservation reservation, List<Booking> claims) {
+        return detached(reservationStore.save(reservation)
+                .onErrorResume(error -> releaseClaims(claims).then(Mono.error(error)))
+                .flatMap(saved -> bookingService.updateBooking(reservation, claims).thenReturn(saved)));
     }
 
+    // the nights are only given up once the cancellation is persisted, a refused write leaves nothing to undo
     @Override
     public Mono<CustomerReservation> cancel(Long reservationId) {
-        return Mono.justOrEmpty(customerReservationRepository.findById(reservationId))
+        return reservationMetrics.timed("cancel", retryOnConflict("cancel", reservationLocks.onReservation(reservationId, () -> findCompleted(reservationId, null)
+                .flatMap(reservation -> reservationLocks.onNights(() -> reread(reservationId, reservation)
+                        .doOnNext(res -> res.setStatus(Status.CANCELLED))
+                        .flatMap(res -> detached(reservationStore.save(res)
+                                .flatMap(saved -> bookingService.cancelBooking(res).thenReturn(saved)))), reservation)))));
+    }
+
+    // a claim that cannot be given back stays booked until restart, the others are still released and the error of
+    // the write is the one reported
+    private Mono<Void> releaseClaims(List<Booking> claims) {
+        return Flux.fromIterable(claims)
+                .concatMap(claim -> bookingService.releaseBooking(claim)
+                        .onErrorResume(error -> {
+                            log.error("Couldn't release the nights claimed for a failed write", error);
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    // the write and what follows it run to the end whatever the caller does, so its claims are confirmed or given back
+    // once the outcome is known rather than on a cancellation that says nothing about it
+    private static <T> Mono<T> detached(Mono<T> write) {
+        return Mono.defer(() -> {
+            Mono<T> outcome = write.cache();
+            outcome.subscribe(result -> {
+            }, error -> {
+            });
+            return outcome;
+        });
+    }
+
+    // an update carries no site, the new dates are locked on the one the reservation is booked on
+    private static CustomerReservation rebooked(CustomerReservation reservation, CustomerReservation reservationUpdate) {
+        return CustomerReservation.builder()
+                .id(reservation.getId())
+                .siteId(reservation.getSiteId())
+                .arrivalDate(reservationUpdate.getArrivalDate())
+                .departureDate(reservationUpdate.getDepartureDate())
+                .build();
+    }
+
+    private static CustomerReservation nightsOf(CustomerReservation reservation) {
+        return CustomerReservation.builder()
+                .id(reservation.getId())
+                .siteId(reservation.getSiteId())
+                .arrivalDate(reservation.getArrivalDate())
+                .departureDate(reservation.getDepartureDate())
+                .build();
+    }
+
+    private Mono<CustomerReservation> findCompleted(Long reservationId, Long expectedVersion) {
+        return reservationStore.findById(reservationId)
                 .switchIfEmpty(Mono.error(new NotFoundException(String.format("Couldn't find reservation with id %s", reservationId))))
+                .filter(reservation -> expectedVersion == null || expectedVersion.equals(reservation.getVersion()))
+                .switchIfEmpty(Mono.error(new PreconditionFailedException(String.format("Reservation with id %s is no longer at version %s", reservationId, expectedVersion))))
                 .filter(reservation -> reservation.getStatus().equals(Status.COMPLETED))
-                .switchIfEmpty(Mono.error(new UnprocessableEntityException(String.format("Reservation with id %s already cancelled", reservationId))))
-                .flatMap(bookingService::cancelBooking)
-                .doOnNext(reservation -> reservation.setStatus(Status.CANCELLED))
-                .map(customerReservationRepository::save);
+                .switchIfEmpty(Mono.error(new UnprocessableEntityException(UnprocessableEntityException.Reason.ALREADY_CANCELLED, String.format("Reservation with id %s already cancelled", reservationId))));
     }
 
+    // the booking index is only touched once the nights are held and the reservation is known to be unchanged since it
+    // was read; the conditional save still catches writers that bypass the index
+    private Mono<CustomerReservation> reread(Long reservationId, CustomerReservation reservation) {
+        return reservationStore.findById(reservationId)
+                .filter(current -> Objects.equals(current.getVersion(), reservation.getVersion()))
+                .switchIfEmpty(Mono.error(new ConflictException(String.format("Reservation with id %s was modified concurrently", reservationId))));
+    }
+
+    private Mono<CustomerReservation> retryOnConflict(String operation, Mono<CustomerReservation> write) {
+        return write
+                .doOnError(ConflictException.class, error -> reservationMetrics.recordVersionConflict(operation))
+                .retry(VERSION_CONFLICT_RETRIES, ConflictException.class::isInstance);
+    }
 }
@@ -0,0 +1,99 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// outcome of each create by idempotency key, so that a retried request is answered without running again;
+// entries are kept in insertion order, which with a single ttl is also their expiry order
+@Component
+public class IdempotencyCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    @Autowired
+    public IdempotencyCache(@Value("${booking.idempotency.max-entries:10000}") int maxEntries,
+                            @Value("${booking.idempotency.ttl-minutes:1440}") long ttlMinutes) {
+        this(maxEntries, Duration.ofMinutes(ttlMinutes), Clock.systemUTC());
+    }
+
+    IdempotencyCache(int maxEntries, Duration ttl, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The idempotency cache keeps at least one entry");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+    }
+
+    // concurrent retries share the first attempt while it runs; a key sent again with another request is refused
+    public Mono<CustomerReservation> execute(String key, Object request, Supplier<Mono<CustomerReservation>> action) {
+        return Mono.defer(() -> {
+            Entry entry = entryFor(key, request, action);
+            if (!entry.request.equals(request)) {
+                return Mono.error(new UnprocessableEntityException(UnprocessableEntityException.Reason.IDEMPOTENCY_KEY_REUSED,
+                        String.format("Idempotency key %s was already used for another request", key)));
+            }
+            // a conflict is an answer worth replaying, any other failure lets the next retry run again
+            return entry.outcome.doOnError(error -> {
+                if (!(error instanceof UnprocessableEntityException)) {
+                    remove(key, entry);
+                }
+            });
+        });
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized Entry entryFor(String key, Object request, Supplier<Mono<CustomerReservation>> action) {
+        long now = clock.millis();
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (oldest.hasNext() && oldest.next().expiresAt <= now) {
+            oldest.remove();
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxEntries) {
+                oldest = entries.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            entry = new Entry(request, action.get().cache(), now + ttlMillis);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        entries.remove(key, entry);
+    }
+
+    private static class Entry {
+
+        private final Object request;
+        private final Mono<CustomerReservation> outcome;
+        private final long expiresAt;
+
+        private Entry(Object request, Mono<CustomerReservation> outcome, long expiresAt) {
+            this.request = request;
+            this.outcome = outcome;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
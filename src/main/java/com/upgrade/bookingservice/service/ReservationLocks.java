@@ -0,0 +1,159 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.util.Constants;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+@Component
+@RequiredArgsConstructor
+public class ReservationLocks {
+
+    private static final int STRIPES = 64;
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    // stripes are not owned by a thread: a pipeline may be released on another thread than the one that acquired it;
+    // the reservation stripes are only taken in single writer mode, see onReservation
+    private final Stripe[] reservationStripes = createStripes();
+    // each site has its own night stripes, so that writers of different sites never wait on each other
+    private final Map<Long, Stripe[]> nightStripes = new ConcurrentHashMap<>();
+
+    private final BookingShards bookingShards;
+    private final ReservationMetrics reservationMetrics;
+    private final Optional<BookingCommandLoop> commandLoop;
+
+    // with night locks, two writers of a reservation always share the stripes of its current nights, so the second one
+    // re-reads it under them, sees the version the first one wrote and retries: no lock per reservation is needed.
+    // The single writer takes no night lock, so only there does a reservation still serialize its own writers
+    public <T> Mono<T> onReservation(Long reservationId, Supplier<Mono<T>> action) {
+        if (!commandLoop.isPresent()) {
+            return Mono.defer(action);
+        }
+        return withLocks("reservation", Collections.singletonList(reservationStripes[stripe(reservationId)]), action);
+    }
+
+    // the single writer already applies every booking index mutation one after the other, nights need no lock of their own
+    public <T> Mono<T> onNights(Supplier<Mono<T>> action, CustomerReservation... reservations) {
+        if (commandLoop.isPresent()) {
+            return Mono.defer(action);
+        }
+        return withLocks("nights", nightLocks(reservations), action);
+    }
+
+    // a reservation for an unknown site takes no stripe, its claim is refused anyway; stripes are only ever created
+    // for the configured sites
+    private List<Stripe> nightLocks(CustomerReservation... reservations) {
+        SortedMap<Long, BitSet> stripesBySite = new TreeMap<>();
+        for (CustomerReservation reservation : reservations) {
+            Long siteId = reservation.getSiteId() == null ? Constants.DEFAULT_SITE_ID : reservation.getSiteId();
+            if (!bookingShards.getSiteIds().contains(siteId)) {
+                continue;
+            }
+            BitSet stripes = stripesBySite.computeIfAbsent(siteId, site -> new BitSet(STRIPES));
+            long departure = toEpochDay(reservation.getDepartureDate());
+            for (long day = toEpochDay(reservation.getArrivalDate()); day < departure && stripes.cardinality() < STRIPES; day++) {
+                stripes.set(stripe(day));
+            }
+        }
+        // sites, then stripes, are always taken in ascending order so that overlapping writers cannot deadlock
+        List<Stripe> locks = new ArrayList<>();
+        stripesBySite.forEach((siteId, stripes) -> {
+            Stripe[] siteStripes = nightStripes.computeIfAbsent(siteId, site -> createStripes());
+            stripes.stream().forEach(i -> locks.add(siteStripes[i]));
+        });
+        return locks;
+    }
+
+    // waiting for a stripe parks no thread: the action is subscribed by whichever thread hands the last stripe over
+    private <T> Mono<T> withLocks(String lock, List<Stripe> locks, Supplier<Mono<T>> action) {
+        return acquire(lock, locks).flatMap(held -> Mono.using(() -> held, h -> action.get(), this::release));
+    }
+
+    // stripes are taken one after the other in the given order; a caller gone while waiting releases them once granted
+    private Mono<List<Stripe>> acquire(String lock, List<Stripe> locks) {
+        return Mono.create(sink -> {
+            long start = System.nanoTime();
+            AtomicInteger state = new AtomicInteger(WAITING);
+            sink.onCancel(() -> state.compareAndSet(WAITING, CANCELLED));
+            acquireFrom(0, locks, () -> {
+                reservationMetrics.recordLockWait(lock, System.nanoTime() - start);
+                if (state.compareAndSet(WAITING, GRANTED)) {
+                    sink.success(locks);
+                } else {
+                    release(locks);
+                }
+            });
+        });
+    }
+
+    private static void acquireFrom(int next, List<Stripe> locks, Runnable granted) {
+        if (next == locks.size()) {
+            granted.run();
+            return;
+        }
+        locks.get(next).acquire(() -> acquireFrom(next + 1, locks, granted));
+    }
+
+    private void release(List<Stripe> locks) {
+        locks.forEach(Stripe::release);
+    }
+
+    private static int stripe(long key) {
+        return (int) Math.floorMod(key, (long) STRIPES);
+    }
+
+    private static long toEpochDay(LocalDateTime dateTime) {
+        return dateTime.toLocalDate().toEpochDay();
+    }
+
+    private static Stripe[] createStripes() {
+        Stripe[] stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        return stripes;
+    }
+
+    // a mutex whose waiters are queued callbacks; each waiter counts in pending before the stripe can be handed to it,
+    // so whoever takes pending from 0, or releases with waiters left, runs exactly one of them
+    private static final class Stripe {
+
+        private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        void acquire(Runnable onAcquired) {
+            waiters.offer(onAcquired);
+            if (pending.getAndIncrement() == 0) {
+                waiters.poll().run();
+            }
+        }
+
+        // the next holder resumes on the parallel scheduler rather than inside the pipeline that released
+        void release() {
+            if (pending.decrementAndGet() > 0) {
+                Schedulers.parallel().schedule(waiters.poll());
+            }
+        }
+    }
+}
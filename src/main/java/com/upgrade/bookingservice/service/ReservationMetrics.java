@@ -0,0 +1,114 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.ConflictException;
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.PreconditionFailedException;
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+@Component
+@RequiredArgsConstructor
+public class ReservationMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public <T> Mono<T> timed(String operation, Mono<T> action) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return action
+                    .doOnSuccess(result -> record(operation, start, null))
+                    .doOnError(error -> record(operation, start, error))
+                    .doOnCancel(() -> time(operation, "cancelled", start));
+        });
+    }
+
+    public <T> Flux<T> timed(String operation, Flux<T> action) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return action
+                    .doOnComplete(() -> record(operation, start, null))
+                    .doOnError(error -> record(operation, start, error))
+                    .doOnCancel(() -> time(operation, "cancelled", start));
+        });
+    }
+
+    public <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value)
+                .description(description)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    public void recordLockWait(String lock, long nanos) {
+        Timer.builder("booking.lock.wait")
+                .tag("lock", lock)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordEviction(int entries) {
+        meterRegistry.counter("booking.index.evicted").increment(entries);
+    }
+
+    public void recordWriterBatch(int commands) {
+        DistributionSummary.builder("booking.writer.batch")
+                .description("Booking writes applied together by the writer thread")
+                .register(meterRegistry)
+                .record(commands);
+    }
+
+    public void recordVersionConflict(String operation) {
+        meterRegistry.counter("booking.version.conflicts", "operation", operation).increment();
+    }
+
+    private void record(String operation, long start, Throwable error) {
+        time(operation, outcome(error), start);
+        if (error instanceof UnprocessableEntityException) {
+            meterRegistry.counter("booking.conflicts", "operation", operation,
+                    "reason", tagValue(((UnprocessableEntityException) error).getReason())).increment();
+        } else if (error instanceof NotFoundException) {
+            meterRegistry.counter("booking.not.found", "operation", operation).increment();
+        }
+    }
+
+    // a caller gone before the end, a client disconnect or a timeout, is timed apart from the operations that finished
+    private void time(String operation, String outcome, long start) {
+        Timer.builder("booking.operations")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static String outcome(Throwable error) {
+        if (error == null) {
+            return "success";
+        }
+        if (error instanceof UnprocessableEntityException) {
+            return "conflict";
+        }
+        if (error instanceof ConflictException) {
+            return "version_conflict";
+        }
+        if (error instanceof PreconditionFailedException) {
+            return "precondition_failed";
+        }
+        return error instanceof NotFoundException ? "not_found" : "error";
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase();
+    }
+}
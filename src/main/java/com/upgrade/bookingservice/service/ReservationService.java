@@ -1,10 +1,12 @@
 package com.upgrade.bookingservice.service;
 
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.ReservationOutcome;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDate;
+import java.util.List;
 
 public interface ReservationService {
 
@@ -12,6 +14,8 @@ public interface ReservationService {
 
     Mono<CustomerReservation> create(CustomerReservation customerReservation);
 
+    Mono<List<ReservationOutcome>> createAll(List<CustomerReservation> customerReservations);
+
     Mono<CustomerReservation> update(CustomerReservation customerReservation);
 
     Mono<CustomerReservation> cancel(Long reservationId);
@@ -11,4 +11,20 @@ public class Constants {
 
     public static final int MAXIMAL_RESERVATION_REQUEST_MONTHS = 1;
     public static final int MINIMAL_RESERVATION_REQUEST_HOURS = 24;
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    public static final String AVAILABILITY_FROM_HEADER = "Availability-From";
+    public static final String AVAILABILITY_NIGHTS_HEADER = "Availability-Nights";
+
+    public static final int AVAILABILITY_CHANGES_BUFFER_SIZE = 256;
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final int IDEMPOTENCY_KEY_MAX_LENGTH = 255;
+
+    public static final int MAXIMUM_RESERVATIONS_PER_BATCH = 100;
+
+    public static final Long DEFAULT_SITE_ID = 1L;
+
+    public static final int BOOKING_WINDOW_DAYS = MAXIMAL_RESERVATION_REQUEST_MONTHS * 31 + MAXIMUM_DAYS_ALLOWED_FOR_A_RESERVATION + 1;
 }
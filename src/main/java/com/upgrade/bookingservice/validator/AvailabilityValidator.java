@@ -1,11 +1,13 @@
 package com.upgrade.bookingservice.validator;
 
 import com.upgrade.bookingservice.controller.dto.AvailabilityRequest;
+import com.upgrade.bookingservice.util.Constants;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
 
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 
 @Component
 public class AvailabilityValidator implements Validator {
@@ -31,6 +33,10 @@ public class AvailabilityValidator implements Validator {
         if(availability.getFrom().isAfter(availability.getTo())) {
             errors.reject("Start date should be before end date");
         }
+        // every availability answer is sized by the range, which is never longer than the nights that can be booked
+        if(ChronoUnit.DAYS.between(availability.getFrom(), availability.getTo()) > Constants.BOOKING_WINDOW_DAYS) {
+            errors.reject(String.format("Range of dates should not be longer than %d days", Constants.BOOKING_WINDOW_DAYS));
+        }
     }
 
 }
@@ -0,0 +1,7 @@
+package com.upgrade.bookingservice;
+
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("reactive")
+public class ReactiveReservationEndpointsIntegrationTest extends ReservationEndpointsIntegrationTest {
+}
@@ -0,0 +1,40 @@
+package com.upgrade.bookingservice.config;
+
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import reactor.core.publisher.Mono;
+
+@Configuration
+@Profile("reactive")
+public class R2dbcConfiguration {
+
+    private static final String SCHEMA = "CREATE TABLE IF NOT EXISTS customer_reservation (" +
+            "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+            "site_id BIGINT, " +
+            "full_name VARCHAR(255), " +
+            "email VARCHAR(255), " +
+            "arrival_date TIMESTAMP, " +
+            "departure_date TIMESTAMP, " +
+            "status VARCHAR(255), " +
+            "version BIGINT)";
+
+    @Bean
+    public ConnectionFactory connectionFactory(@Value("${booking.r2dbc.url}") String url) {
+        H2ConnectionFactory connectionFactory = new H2ConnectionFactory(H2ConnectionConfiguration.builder()
+                .url(url)
+                .build());
+
+        Mono.usingWhen(connectionFactory.create(),
+                connection -> Mono.from(connection.createStatement(SCHEMA).execute()).flatMap(result -> Mono.from(result.getRowsUpdated())),
+                Connection::close,
+                Connection::close)
+                .block();
+        return connectionFactory;
+    }
+}
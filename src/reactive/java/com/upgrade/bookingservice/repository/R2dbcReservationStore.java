@@ -0,0 +1,147 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.ConflictException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.Status;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+
+@Repository
+@Profile("reactive")
+@RequiredArgsConstructor
+public class R2dbcReservationStore implements ReservationStore {
+
+    private static final String SELECT_BY_ID = "SELECT id, site_id, full_name, email, arrival_date, departure_date, status, version FROM customer_reservation WHERE id = $1";
+    private static final String SELECT_COMPLETED_DEPARTING_AFTER = "SELECT id, site_id, full_name, email, arrival_date, departure_date, status, version FROM customer_reservation WHERE status = $1 AND departure_date > $2";
+    private static final String INSERT = "INSERT INTO customer_reservation (full_name, email, arrival_date, departure_date, status, site_id, version) VALUES ($1, $2, $3, $4, $5, $6, 0)";
+    private static final String UPDATE = "UPDATE customer_reservation SET full_name = $1, email = $2, arrival_date = $3, departure_date = $4, status = $5, site_id = $6, version = version + 1 WHERE id = $7 AND version = $8";
+
+    private final ConnectionFactory connectionFactory;
+
+    @Override
+    public Mono<CustomerReservation> findById(Long reservationId) {
+        return withConnection(connection -> Mono.from(connection.createStatement(SELECT_BY_ID)
+                .bind("$1", reservationId)
+                .execute())
+                .flatMap(result -> Mono.from(result.map((row, metadata) -> toReservation(row)))));
+    }
+
+    @Override
+    public Mono<CustomerReservation> save(CustomerReservation reservation) {
+        if (reservation.getId() == null) {
+            return withConnection(connection -> Mono.from(bindColumns(connection.createStatement(INSERT), reservation)
+                    .returnGeneratedValues("id")
+                    .execute())
+                    .flatMap(result -> Mono.from(result.map((row, metadata) -> row.get("id", Long.class))))
+                    .doOnNext(id -> {
+                        reservation.setId(id);
+                        reservation.setVersion(0L);
+                    })
+                    .thenReturn(reservation));
+        }
+        // no row updated: the reservation was written since it was read
+        return withConnection(connection -> Mono.from(bindColumns(connection.createStatement(UPDATE), reservation)
+                .bind("$7", reservation.getId())
+                .bind("$8", reservation.getVersion())
+                .execute())
+                .flatMap(result -> Mono.from(result.getRowsUpdated()))
+                .flatMap(rowsUpdated -> {
+                    if (rowsUpdated == 0) {
+                        return Mono.error(new ConflictException(String.format("Reservation with id %s was modified concurrently", reservation.getId())));
+                    }
+                    reservation.setVersion(reservation.getVersion() + 1);
+                    return Mono.just(reservation);
+                }));
+    }
+
+    // one statement with a binding per reservation, inserted in a single transaction
+    @Override
+    public Mono<List<CustomerReservation>> saveAll(List<CustomerReservation> reservations) {
+        if (reservations.isEmpty()) {
+            return Mono.just(reservations);
+        }
+        return withConnection(connection -> {
+            Statement statement = connection.createStatement(INSERT);
+            for (int i = 0; i < reservations.size(); i++) {
+                if (i > 0) {
+                    statement.add();
+                }
+                bindColumns(statement, reservations.get(i));
+            }
+            return Mono.from(connection.beginTransaction())
+                    .thenMany(statement.returnGeneratedValues("id").execute())
+                    .concatMap(result -> result.map((row, metadata) -> row.get("id", Long.class)))
+                    .collectList()
+                    .flatMap(ids -> Mono.from(connection.commitTransaction()).thenReturn(ids))
+                    .onErrorResume(error -> Mono.from(connection.rollbackTransaction()).then(Mono.error(error)))
+                    .map(ids -> {
+                        for (int i = 0; i < ids.size(); i++) {
+                            reservations.get(i).setId(ids.get(i));
+                            reservations.get(i).setVersion(0L);
+                        }
+                        return reservations;
+                    });
+        });
+    }
+
+    // rows are streamed from the driver as they are read
+    @Override
+    public Flux<CustomerReservation> findCompletedDepartingAfter(LocalDateTime departureDate) {
+        return Flux.usingWhen(connectionFactory.create(),
+                connection -> Flux.from(connection.createStatement(SELECT_COMPLETED_DEPARTING_AFTER)
+                        .bind("$1", Status.COMPLETED.name())
+                        .bind("$2", departureDate)
+                        .execute())
+                        .flatMap(result -> result.map((row, metadata) -> toReservation(row))),
+                Connection::close,
+                Connection::close);
+    }
+
+    // statements publish on the driver's own threads, no scheduler is borrowed per query
+    private <T> Mono<T> withConnection(Function<Connection, Mono<T>> action) {
+        return Mono.usingWhen(connectionFactory.create(), action, Connection::close, Connection::close);
+    }
+
+    private static Statement bindColumns(Statement statement, CustomerReservation reservation) {
+        bindNullable(statement, "$1", reservation.getFullName(), String.class);
+        bindNullable(statement, "$2", reservation.getEmail(), String.class);
+        bindNullable(statement, "$3", reservation.getArrivalDate(), LocalDateTime.class);
+        bindNullable(statement, "$4", reservation.getDepartureDate(), LocalDateTime.class);
+        bindNullable(statement, "$5", reservation.getStatus() == null ? null : reservation.getStatus().name(), String.class);
+        bindNullable(statement, "$6", reservation.getSiteId(), Long.class);
+        return statement;
+    }
+
+    private static <T> void bindNullable(Statement statement, String name, T value, Class<T> type) {
+        if (value == null) {
+            statement.bindNull(name, type);
+        } else {
+            statement.bind(name, value);
+        }
+    }
+
+    private static CustomerReservation toReservation(Row row) {
+        String status = row.get("status", String.class);
+        return CustomerReservation.builder()
+                .id(row.get("id", Long.class))
+                .siteId(row.get("site_id", Long.class))
+                .fullName(row.get("full_name", String.class))
+                .email(row.get("email", String.class))
+                .arrivalDate(row.get("arrival_date", LocalDateTime.class))
+                .departureDate(row.get("departure_date", LocalDateTime.class))
+                .status(status == null ? null : Status.valueOf(status))
+                .version(row.get("version", Long.class))
+                .build();
+    }
+}
@@ -0,0 +1,17 @@
+package com.upgrade.bookingservice;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+import reactor.blockhound.BlockHound;
+
+public class BlockHoundListener extends RunListener {
+
+    @Override
+    public void testRunStarted(Description description) {
+        BlockHound.builder()
+                .allowBlockingCallsInside("ch.qos.logback.classic.Logger", "buildLoggingEventAndAppend")
+                .allowBlockingCallsInside("io.netty.util.concurrent.SingleThreadEventExecutor", "confirmShutdown")
+                .nonBlockingThreadPredicate(current -> current.or(thread -> thread.getName().startsWith("reactor-http")))
+                .install();
+    }
+}
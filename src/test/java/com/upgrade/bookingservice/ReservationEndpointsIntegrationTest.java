@@ -0,0 +1,346 @@
+package com.upgrade.bookingservice;
+
+import com.upgrade.bookingservice.controller.dto.ReservationRequest;
+import com.upgrade.bookingservice.controller.dto.UpdateReservationRequest;
+import com.upgrade.bookingservice.util.Constants;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"booking.sites=2", "booking.units=1,2"})
+public class ReservationEndpointsIntegrationTest {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Test
+    public void shouldCreateUpdateAndCancelReservationOverHttp() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(10);
+
+        ReservationRequest reservationRequest = ReservationRequest.builder()
+                .fullName("John Doe")
+                .email("john@doe.com")
+                .arrivalDate(arrivalDate)
+                .departureDate(arrivalDate.plusDays(2))
+                .build();
+
+        Map<?, ?> created = this.webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(reservationRequest))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Map.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(created.get("status")).isEqualTo("COMPLETED");
+        Object reservationId = created.get("id");
+
+        this.webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(reservationRequest))
+                .exchange()
+                .expectStatus().isEqualTo(422);
+
+        this.webClient.put().uri("/reservations/{reservationId}", reservationId)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(new UpdateReservationRequest(arrivalDate.plusDays(1), arrivalDate.plusDays(3))))
+                .exchange()
+                .expectStatus().isOk();
+
+        this.webClient.get().uri("/reservations/{reservationId}/cancel", reservationId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("CANCELLED");
+
+        this.webClient.get().uri("/reservations/{reservationId}", reservationId)
+                .exchange()
+                .expectStatus().isOk();
+
+        this.webClient.get().uri("/reservations/{reservationId}", Integer.MAX_VALUE)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void shouldRefuseUpdateBasedOnStaleVersion() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(14);
+
+        Map<?, ?> created = this.webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(reservationRequest(arrivalDate, arrivalDate.plusDays(1))))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"0\"")
+                .expectBody(Map.class)
+                .returnResult()
+                .getResponseBody();
+        Object reservationId = created.get("id");
+
+        this.webClient.put().uri("/reservations/{reservationId}", reservationId)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .body(BodyInserters.fromObject(new UpdateReservationRequest(arrivalDate, arrivalDate.plusDays(2))))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"1\"")
+                .expectBody()
+                .jsonPath("$.version").isEqualTo(1);
+
+        this.webClient.put().uri("/reservations/{reservationId}", reservationId)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .body(BodyInserters.fromObject(new UpdateReservationRequest(arrivalDate.plusDays(1), arrivalDate.plusDays(2))))
+                .exchange()
+                .expectStatus().isEqualTo(412);
+
+        this.webClient.get().uri("/reservations/{reservationId}", reservationId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"1\"")
+                .expectBody()
+                .jsonPath("$.departureDate").isEqualTo(arrivalDate.plusDays(2) + " 12:00");
+    }
+
+    @Test
+    public void shouldAnswerRetriedCreateWithFirstReservation() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(16);
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        ReservationRequest reservationRequest = ReservationRequest.builder()
+                .fullName("John Doe")
+                .email("john@doe.com")
+                .arrivalDate(arrivalDate)
+                .departureDate(arrivalDate.plusDays(1))
+                .build();
+
+        Object[] reservationIds = new Object[2];
+        for (int attempt = 0; attempt < 2; attempt++) {
+            reservationIds[attempt] = this.webClient.post().uri("/reservations")
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .header(Constants.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                    .body(BodyInserters.fromObject(reservationRequest))
+                    .exchange()
+                    .expectStatus().isCreated()
+                    .expectBody(Map.class)
+                    .returnResult()
+                    .getResponseBody()
+                    .get("id");
+        }
+
+        assertThat(reservationIds[1]).isEqualTo(reservationIds[0]);
+    }
+
+    @Test
+    public void shouldCreateBatchOfReservationsWithResultPerItem() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(4);
+
+        this.webClient.post().uri("/reservations/batch")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(Arrays.asList(
+                        reservationRequest(arrivalDate, arrivalDate.plusDays(2)),
+                        reservationRequest(arrivalDate.plusDays(2), arrivalDate.plusDays(6)),
+                        reservationRequest(arrivalDate.plusDays(1), arrivalDate.plusDays(3)),
+                        reservationRequest(arrivalDate.plusDays(2), arrivalDate.plusDays(3)))))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo(201)
+                .jsonPath("$[0].reservation.status").isEqualTo("COMPLETED")
+                .jsonPath("$[1].status").isEqualTo(400)
+                .jsonPath("$[2].status").isEqualTo(422)
+                .jsonPath("$[3].status").isEqualTo(201)
+                .jsonPath("$[3].reservation.id").isNumber();
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", arrivalDate, arrivalDate.plusDays(3))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(0);
+    }
+
+    @Test
+    public void shouldBookSameNightsOnEverySite() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(18);
+
+        this.webClient.get().uri("/site/availabilities/sites?from={from}&to={to}", arrivalDate, arrivalDate.plusDays(1))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2);
+
+        for (Long siteId : Arrays.asList(1L, 2L, 2L)) {
+            this.webClient.post().uri("/reservations")
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .body(BodyInserters.fromObject(reservationRequest(arrivalDate, arrivalDate.plusDays(1), siteId)))
+                    .exchange()
+                    .expectStatus().isCreated()
+                    .expectBody()
+                    .jsonPath("$.siteId").isEqualTo(siteId.intValue());
+        }
+
+        this.webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(reservationRequest(arrivalDate, arrivalDate.plusDays(1), 3L)))
+                .exchange()
+                .expectStatus().isNotFound();
+
+        this.webClient.get().uri("/site/availabilities?site=2&from={from}&to={to}", arrivalDate, arrivalDate.plusDays(1))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(0);
+
+        this.webClient.get().uri("/site/availabilities/sites?from={from}&to={to}", arrivalDate, arrivalDate.plusDays(1))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReportUnitsLeftOnPooledSite() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(8);
+
+        this.webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(reservationRequest(arrivalDate, arrivalDate.plusDays(1), 2L)))
+                .exchange()
+                .expectStatus().isCreated();
+
+        this.webClient.get().uri("/site/availabilities/capacity?site=2&from={from}&to={to}", arrivalDate, arrivalDate.plusDays(2))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].remaining").isEqualTo(1)
+                .jsonPath("$[1].remaining").isEqualTo(2);
+
+        this.webClient.get().uri("/site/availabilities?site=2&from={from}&to={to}", arrivalDate, arrivalDate.plusDays(2))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReturnAvailabilitiesOverHttp() {
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", LocalDate.now().plusDays(20), LocalDate.now().plusDays(25))
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(5);
+    }
+
+    @Test
+    public void shouldRefuseAvailabilitiesOfRangeLongerThanBookingWindow() {
+        this.webClient.get().uri("/site/availabilities/intervals?from={from}&to={to}", LocalDate.now().plusDays(1), LocalDate.now().plusDays(Constants.BOOKING_WINDOW_DAYS + 2))
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void shouldStreamAvailabilitiesOverHttp() {
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", LocalDate.now().plusDays(20), LocalDate.now().plusDays(25))
+                .accept(MediaType.parseMediaType(Constants.APPLICATION_NDJSON_VALUE))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(body -> assertThat(body.split("\n")).hasSize(5));
+    }
+
+    @Test
+    public void shouldRevalidateAvailabilitiesAgainstOccupancyVersion() {
+        LocalDate arrivalDate = LocalDate.now().plusDays(27);
+        String uri = String.format("/site/availabilities?from=%s&to=%s", arrivalDate, arrivalDate.plusDays(3));
+
+        String eTag = this.webClient.get().uri(uri)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseHeaders().getETag();
+
+        this.webClient.get().uri(uri)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+
+        this.webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(ReservationRequest.builder()
+                        .fullName("Jane Doe")
+                        .email("jane@doe.com")
+                        .arrivalDate(arrivalDate)
+                        .departureDate(arrivalDate.plusDays(1))
+                        .build()))
+                .exchange()
+                .expectStatus().isCreated();
+
+        this.webClient.get().uri(uri)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReportBookingIndexLoadedOnHealthEndpoint() {
+        this.webClient.get().uri("/actuator/health")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.details.bookingIndexLoader.status").isEqualTo("UP")
+                .jsonPath("$.details.bookingIndexLoader.details.loadTimeMillis").exists();
+    }
+
+    @Test
+    public void shouldExposeBookingMetricsOnPrometheusEndpoint() {
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", LocalDate.now().plusDays(20), LocalDate.now().plusDays(25))
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk();
+
+        this.webClient.get().uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(body -> assertThat(body)
+                        .contains("booking_operations_seconds_count{operation=\"find_availabilities\",outcome=\"success\",}")
+                        .contains("booking_nights_booked")
+                        .contains("booking_index_size"));
+    }
+
+    private static ReservationRequest reservationRequest(LocalDate arrivalDate, LocalDate departureDate) {
+        return reservationRequest(arrivalDate, departureDate, null);
+    }
+
+    private static ReservationRequest reservationRequest(LocalDate arrivalDate, LocalDate departureDate, Long siteId) {
+        return ReservationRequest.builder()
+                .fullName("John Doe")
+                .email("john@doe.com")
+                .arrivalDate(arrivalDate)
+                .departureDate(departureDate)
+                .siteId(siteId)
+                .build();
+    }
+}
@@ -0,0 +1,274 @@
+package com.upgrade.bookingservice;
+
+import com.upgrade.bookingservice.controller.dto.ReservationRequest;
+import com.upgrade.bookingservice.controller.dto.UpdateReservationRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// drives the HTTP endpoints with a mix of availability reads and reservation writes, run with mvn test -Pload-test;
+// the number of requests, the concurrency and the mix are set with -Dload.requests, -Dload.concurrency,
+// -Dload.create-percent and -Dload.modify-percent
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ReservationLoadTest {
+
+    // arrivals stay clear of the minimal notice and of the one month limit whatever the time of day
+    private static final int FIRST_ARRIVAL_DAY = 2;
+    private static final int LAST_ARRIVAL_DAY = 27;
+
+    private enum Operation { READ, CREATE, UPDATE, CANCEL }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private WebClient.Builder webClientBuilder;
+
+    @Value("${load.requests:5000}")
+    private int requests;
+
+    @Value("${load.concurrency:64}")
+    private int concurrency;
+
+    @Value("${load.create-percent:4}")
+    private int createPercent;
+
+    @Value("${load.modify-percent:1}")
+    private int modifyPercent;
+
+    private WebClient webClient;
+
+    private final Map<Operation, ConcurrentLinkedQueue<Long>> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicInteger> conflicts = new EnumMap<>(Operation.class);
+    private final List<HttpStatus> unexpectedStatuses = Collections.synchronizedList(new ArrayList<>());
+
+    private final Set<Long> createdReservations = ConcurrentHashMap.newKeySet();
+    private final List<Long> activeReservations = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        webClient = webClientBuilder.baseUrl("http://localhost:" + port).build();
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentLinkedQueue<>());
+            conflicts.put(operation, new AtomicInteger());
+        }
+    }
+
+    @Test
+    public void shouldServeMixedLoadWithoutDoubleBooking() {
+        long start = System.nanoTime();
+        Flux.range(0, requests)
+                .flatMap(i -> execute(nextOperation()), concurrency)
+                .blockLast();
+        long elapsed = System.nanoTime() - start;
+
+        report(elapsed);
+
+        assertThat(unexpectedStatuses).isEmpty();
+        assertNoDoubleBooking();
+    }
+
+    private Operation nextOperation() {
+        int draw = ThreadLocalRandom.current().nextInt(100);
+        if (draw < createPercent) {
+            return Operation.CREATE;
+        }
+        if (draw < createPercent + modifyPercent) {
+            return ThreadLocalRandom.current().nextBoolean() ? Operation.UPDATE : Operation.CANCEL;
+        }
+        return Operation.READ;
+    }
+
+    private Mono<ClientResponse> execute(Operation operation) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return request(operation)
+                    .doOnNext(response -> latencies.get(operation).add(System.nanoTime() - start));
+        });
+    }
+
+    private Mono<ClientResponse> request(Operation operation) {
+        switch (operation) {
+            case CREATE:
+                return create();
+            case UPDATE:
+                return withActiveReservation(this::update);
+            case CANCEL:
+                return withActiveReservation(this::cancel);
+            default:
+                return read();
+        }
+    }
+
+    private Mono<ClientResponse> read() {
+        LocalDate from = LocalDate.now().plusDays(ThreadLocalRandom.current().nextInt(1, LAST_ARRIVAL_DAY));
+        return webClient.get().uri("/site/availabilities?from={from}&to={to}", from, from.plusDays(7))
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .flatMap(response -> expect(Operation.READ, response));
+    }
+
+    private Mono<ClientResponse> create() {
+        LocalDate arrivalDate = randomArrivalDate();
+        return webClient.post().uri("/reservations")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(ReservationRequest.builder()
+                        .fullName("Load Tester")
+                        .email("load@tester.com")
+                        .arrivalDate(arrivalDate)
+                        .departureDate(arrivalDate.plusDays(randomNights()))
+                        .build()))
+                .exchange()
+                .flatMap(response -> response.statusCode() == HttpStatus.CREATED
+                        ? response.bodyToMono(Map.class)
+                                .doOnNext(this::track)
+                                .thenReturn(response)
+                        : expect(Operation.CREATE, response));
+    }
+
+    private Mono<ClientResponse> update(Long reservationId) {
+        LocalDate arrivalDate = randomArrivalDate();
+        return webClient.put().uri("/reservations/{reservationId}", reservationId)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(BodyInserters.fromObject(new UpdateReservationRequest(arrivalDate, arrivalDate.plusDays(randomNights()))))
+                .exchange()
+                .flatMap(response -> expect(Operation.UPDATE, response));
+    }
+
+    private Mono<ClientResponse> cancel(Long reservationId) {
+        return webClient.get().uri("/reservations/{reservationId}/cancel", reservationId)
+                .exchange()
+                .flatMap(response -> expect(Operation.CANCEL, response))
+                .doOnNext(response -> {
+                    synchronized (activeReservations) {
+                        activeReservations.remove(reservationId);
+                    }
+                });
+    }
+
+    // with nothing booked yet, writes on existing reservations fall back to a read
+    private Mono<ClientResponse> withActiveReservation(Function<Long, Mono<ClientResponse>> request) {
+        Long reservationId;
+        synchronized (activeReservations) {
+            reservationId = activeReservations.isEmpty() ? null : activeReservations.get(ThreadLocalRandom.current().nextInt(activeReservations.size()));
+        }
+        return reservationId == null ? read() : request.apply(reservationId);
+    }
+
+    // 422 is the expected answer to a write racing another one for the same nights
+    private Mono<ClientResponse> expect(Operation operation, ClientResponse response) {
+        if (response.statusCode() == HttpStatus.UNPROCESSABLE_ENTITY && operation != Operation.READ) {
+            conflicts.get(operation).incrementAndGet();
+        } else if (!response.statusCode().is2xxSuccessful()) {
+            unexpectedStatuses.add(response.statusCode());
+        }
+        return response.bodyToMono(byte[].class).thenReturn(response);
+    }
+
+    private void track(Map<?, ?> reservation) {
+        Long reservationId = ((Number) reservation.get("id")).longValue();
+        createdReservations.add(reservationId);
+        synchronized (activeReservations) {
+            activeReservations.add(reservationId);
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        int total = latencies.values().stream().mapToInt(ConcurrentLinkedQueue::size).sum();
+        log.info("{} requests in {} ms with concurrency {}: {} requests/s", total, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                concurrency, String.format("%.1f", total / (elapsedNanos / 1e9)));
+        latencies.forEach((operation, samples) -> {
+            long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+            if (sorted.length > 0) {
+                log.info("{}: {} requests, {} conflicts (422), p50 {} ms, p99 {} ms, p999 {} ms", operation, sorted.length,
+                        conflicts.get(operation).get(), millis(percentile(sorted, 0.5)), millis(percentile(sorted, 0.99)),
+                        millis(percentile(sorted, 0.999)));
+            }
+        });
+    }
+
+    // every night booked by a completed reservation is held by exactly one of them and is not reported as free
+    private void assertNoDoubleBooking() {
+        LocalDate from = LocalDate.now().plusDays(1);
+        LocalDate to = LocalDate.now().plusDays(LAST_ARRIVAL_DAY + 4);
+        BitSet booked = new BitSet();
+        Flux.fromIterable(createdReservations)
+                .flatMap(reservationId -> webClient.get().uri("/reservations/{reservationId}", reservationId)
+                        .retrieve()
+                        .bodyToMono(Map.class), concurrency)
+                .filter(reservation -> "COMPLETED".equals(reservation.get("status")))
+                .toIterable()
+                .forEach(reservation -> {
+                    int arrival = (int) (night(reservation.get("arrivalDate")).toEpochDay() - from.toEpochDay());
+                    int departure = (int) (night(reservation.get("departureDate")).toEpochDay() - from.toEpochDay());
+                    assertThat(booked.get(arrival, departure).isEmpty())
+                            .as("nights of reservation %s are booked twice", reservation.get("id"))
+                            .isTrue();
+                    booked.set(arrival, departure);
+                });
+
+        List<LocalDate> free = webClient.get().uri("/site/availabilities?from={from}&to={to}", from, to)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<List<LocalDate>>() {})
+                .block();
+        free.forEach(night -> assertThat(booked.get((int) (night.toEpochDay() - from.toEpochDay())))
+                .as("night %s is booked but reported free", night)
+                .isFalse());
+        assertThat(free).hasSize((int) (to.toEpochDay() - from.toEpochDay()) - booked.cardinality());
+    }
+
+    // reservation dates are serialized as yyyy-MM-dd HH:mm
+    private static LocalDate night(Object dateTime) {
+        return LocalDate.parse(dateTime.toString().substring(0, 10));
+    }
+
+    private static LocalDate randomArrivalDate() {
+        return LocalDate.now().plusDays(ThreadLocalRandom.current().nextInt(FIRST_ARRIVAL_DAY, LAST_ARRIVAL_DAY + 1));
+    }
+
+    private static int randomNights() {
+        return ThreadLocalRandom.current().nextInt(1, 4);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.max((int) Math.ceil(percentile * sorted.length) - 1, 0)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+}
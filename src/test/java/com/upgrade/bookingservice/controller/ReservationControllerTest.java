@@ -6,9 +6,12 @@ import com.upgrade.bookingservice.controller.dto.CustomerReservationResponse;
 import com.upgrade.bookingservice.controller.dto.ReservationRequest;
 import com.upgrade.bookingservice.controller.dto.UpdateReservationRequest;
 import com.upgrade.bookingservice.converter.ReservationConverter;
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.ReservationOutcome;
 import com.upgrade.bookingservice.model.Status;
 import com.upgrade.bookingservice.serializer.LocalDateTimeSerializer;
+import com.upgrade.bookingservice.service.IdempotencyCache;
 import com.upgrade.bookingservice.service.ReservationService;
 import com.upgrade.bookingservice.util.Constants;
 import com.upgrade.bookingservice.validator.ReservationValidator;
@@ -21,7 +24,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.CodecConfigurer;
 import org.springframework.http.codec.json.Jackson2JsonDecoder;
@@ -32,15 +37,19 @@ import org.springframework.web.reactive.function.BodyInserters;
 import reactor.core.publisher.Hooks;
 import reactor.core.publisher.Mono;
 
+import javax.validation.Validator;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
 
 import static org.mockito.ArgumentMatchers.any;
 
 @RunWith(SpringRunner.class)
 @WebFluxTest(ReservationController.class)
+@Import(IdempotencyCache.class)
 public class ReservationControllerTest {
 
     @Mock
@@ -55,6 +64,12 @@ public class ReservationControllerTest {
     @MockBean
     private ReservationService reservationService;
 
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+
+    @Autowired
+    private Validator beanValidator;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -72,7 +87,7 @@ public class ReservationControllerTest {
         Hooks.onOperatorDebug();
 
         this.webClient = WebTestClient
-                .bindToController(new ReservationController(reservationValidator, reservationService, reservationConverter))
+                .bindToController(new ReservationController(reservationValidator, reservationService, reservationConverter, idempotencyCache, beanValidator))
                 .httpMessageCodecs((configurer) -> {
                     CodecConfigurer.DefaultCodecs defaults = configurer.defaultCodecs();
                     defaults.jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper));
@@ -141,6 +156,137 @@ public class ReservationControllerTest {
                 .expectBody().json(reservationJacksonTester.write(expectedReservation).getJson());
     }
 
+    @Test
+    public void shouldAnswerRetriedCreateFromIdempotencyCache() throws IOException {
+
+        Long reservationId = new Random().nextLong();
+        LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+
+        ReservationRequest reservationRequest = ReservationRequest.builder()
+                .email("john@doe.com")
+                .fullName("John Doe")
+                .arrivalDate(arrivalDate.toLocalDate())
+                .departureDate(departureDate.toLocalDate())
+                .build();
+
+        CustomerReservationResponse expectedReservation = CustomerReservationResponse.builder()
+                .id(reservationId)
+                .arrivalDate(arrivalDate)
+                .departureDate(departureDate)
+                .status(Status.COMPLETED.name())
+                .build();
+
+        Mockito.when(reservationValidator.supports(any())).thenReturn(true);
+        Mockito.when(reservationConverter.create(reservationRequest)).thenReturn(customerReservation);
+        Mockito.when(reservationService.create(customerReservation)).thenReturn(Mono.just(customerReservation));
+        Mockito.when(reservationConverter.convert(customerReservation)).thenReturn(expectedReservation);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            this.webClient.post().uri("/reservations")
+                    .body(BodyInserters.fromObject(reservationRequest))
+                    .accept(MediaType.APPLICATION_JSON_UTF8)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE)
+                    .header(Constants.IDEMPOTENCY_KEY_HEADER, "retried-create")
+                    .exchange()
+                    .expectStatus().isCreated()
+                    .expectBody().json(reservationJacksonTester.write(expectedReservation).getJson());
+        }
+
+        Mockito.verify(reservationService, Mockito.times(1)).create(any());
+    }
+
+    @Test
+    public void shouldReturnBadRequestGivenOversizedIdempotencyKey() {
+        ReservationRequest reservationRequest = ReservationRequest.builder()
+                .email("john@doe.com")
+                .fullName("John Doe")
+                .arrivalDate(LocalDate.now().plusDays(1))
+                .departureDate(LocalDate.now().plusDays(2))
+                .build();
+
+        Mockito.when(reservationValidator.supports(any())).thenReturn(true);
+
+        this.webClient.post().uri("/reservations")
+                .body(BodyInserters.fromObject(reservationRequest))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .header(Constants.IDEMPOTENCY_KEY_HEADER, new String(new char[Constants.IDEMPOTENCY_KEY_MAX_LENGTH + 1]).replace('\0', 'k'))
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        Mockito.verify(reservationService, Mockito.never()).create(any());
+    }
+
+    @Test
+    public void shouldReturnResultPerItemGivenBatchOfReservationRequests() {
+
+        Long reservationId = new Random().nextLong();
+        LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+
+        ReservationRequest createdRequest = ReservationRequest.builder()
+                .email("john@doe.com")
+                .fullName("John Doe")
+                .arrivalDate(arrivalDate.toLocalDate())
+                .departureDate(departureDate.toLocalDate())
+                .build();
+        ReservationRequest invalidRequest = ReservationRequest.builder()
+                .email("jane@doe.com")
+                .arrivalDate(arrivalDate.toLocalDate())
+                .departureDate(departureDate.toLocalDate())
+                .build();
+        ReservationRequest rejectedRequest = ReservationRequest.builder()
+                .email("jack@doe.com")
+                .fullName("Jack Doe")
+                .arrivalDate(arrivalDate.toLocalDate())
+                .departureDate(departureDate.toLocalDate())
+                .build();
+        CustomerReservation rejectedReservation = Mockito.mock(CustomerReservation.class);
+
+        CustomerReservationResponse expectedReservation = CustomerReservationResponse.builder()
+                .id(reservationId)
+                .arrivalDate(arrivalDate)
+                .departureDate(departureDate)
+                .status(Status.COMPLETED.name())
+                .build();
+
+        Mockito.when(reservationConverter.create(createdRequest)).thenReturn(customerReservation);
+        Mockito.when(reservationConverter.create(rejectedRequest)).thenReturn(rejectedReservation);
+        Mockito.when(reservationService.createAll(Arrays.asList(customerReservation, rejectedReservation))).thenReturn(Mono.just(Arrays.asList(
+                ReservationOutcome.created(customerReservation),
+                ReservationOutcome.rejected(rejectedReservation, new UnprocessableEntityException(UnprocessableEntityException.Reason.UNAVAILABLE, "Requested range of dates is unavailable")))));
+        Mockito.when(reservationConverter.convert(customerReservation)).thenReturn(expectedReservation);
+
+        this.webClient.post().uri("/reservations/batch")
+                .body(BodyInserters.fromObject(Arrays.asList(createdRequest, invalidRequest, rejectedRequest)))
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$[0].status").isEqualTo(201)
+                .jsonPath("$[0].reservation.id").isEqualTo(reservationId)
+                .jsonPath("$[1].index").isEqualTo(1)
+                .jsonPath("$[1].status").isEqualTo(400)
+                .jsonPath("$[1].message").isEqualTo("Full name cannot be missing or empty")
+                .jsonPath("$[2].status").isEqualTo(422)
+                .jsonPath("$[2].message").isEqualTo("Requested range of dates is unavailable");
+
+        Mockito.verify(reservationValidator, Mockito.times(2)).validate(any(), any());
+    }
+
+    @Test
+    public void shouldReturnBadRequestGivenEmptyBatch() {
+        this.webClient.post().uri("/reservations/batch")
+                .body(BodyInserters.fromObject(Collections.emptyList()))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        Mockito.verify(reservationService, Mockito.never()).createAll(any());
+    }
+
     @Test
     public void shouldReturnUpdatedReservationGivenUpdateReservationRequest() throws IOException {
 
@@ -174,6 +320,65 @@ public class ReservationControllerTest {
                 .expectBody().json(reservationJacksonTester.write(expectedReservation).getJson());
     }
 
+    @Test
+    public void shouldUpdateReservationAtIfMatchVersionAndTagItWithNewVersion() throws IOException {
+
+        Long reservationId = new Random().nextLong();
+        LocalDate arrivalDate = LocalDate.now().plusDays(1);
+
+        UpdateReservationRequest reservationRequest = UpdateReservationRequest.builder()
+                .arrivalDate(arrivalDate)
+                .departureDate(arrivalDate.plusDays(1))
+                .build();
+
+        CustomerReservationResponse expectedReservation = CustomerReservationResponse.builder()
+                .id(reservationId)
+                .arrivalDate(LocalDateTime.of(arrivalDate, Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(arrivalDate.plusDays(1), Constants.DEFAULT_CHECK_OUT_TIME))
+                .status(Status.COMPLETED.name())
+                .version(4L)
+                .build();
+
+        Mockito.when(reservationValidator.supports(any())).thenReturn(true);
+        Mockito.when(reservationConverter.update(reservationId, reservationRequest)).thenReturn(customerReservation);
+        Mockito.when(reservationService.update(customerReservation)).thenReturn(Mono.just(customerReservation));
+        Mockito.when(reservationConverter.convert(customerReservation)).thenReturn(expectedReservation);
+
+        this.webClient.put().uri("/reservations/{reservationId}", reservationId)
+                .body(BodyInserters.fromObject(reservationRequest))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .header(HttpHeaders.IF_MATCH, "\"3\"")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"4\"")
+                .expectBody().json(reservationJacksonTester.write(expectedReservation).getJson());
+
+        Mockito.verify(customerReservation).setVersion(3L);
+    }
+
+    @Test
+    public void shouldReturnPreconditionFailedGivenIfMatchTagOfNoVersion() {
+
+        Long reservationId = new Random().nextLong();
+        LocalDate arrivalDate = LocalDate.now().plusDays(1);
+
+        UpdateReservationRequest reservationRequest = UpdateReservationRequest.builder()
+                .arrivalDate(arrivalDate)
+                .departureDate(arrivalDate.plusDays(1))
+                .build();
+
+        Mockito.when(reservationValidator.supports(any())).thenReturn(true);
+
+        this.webClient.put().uri("/reservations/{reservationId}", reservationId)
+                .body(BodyInserters.fromObject(reservationRequest))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .header(HttpHeaders.IF_MATCH, "W/\"3\"")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        Mockito.verify(reservationService, Mockito.never()).update(any());
+    }
+
     @Test
     public void shouldReturnCancelledReservationGivenReservationId() throws IOException {
 
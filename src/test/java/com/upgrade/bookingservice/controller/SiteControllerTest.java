@@ -1,8 +1,13 @@
 package com.upgrade.bookingservice.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.bookingservice.config.WebConfiguration;
 import com.upgrade.bookingservice.controller.dto.AvailabilityRequest;
+import com.upgrade.bookingservice.model.AvailabilityChange;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.model.NightCapacity;
 import com.upgrade.bookingservice.service.BookingService;
+import com.upgrade.bookingservice.util.Constants;
 import com.upgrade.bookingservice.validator.AvailabilityValidator;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,18 +17,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.CodecConfigurer;
 import org.springframework.http.codec.json.Jackson2JsonDecoder;
 import org.springframework.http.codec.json.Jackson2JsonEncoder;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.FluxExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -58,6 +70,7 @@ public class SiteControllerTest {
                     CodecConfigurer.DefaultCodecs defaults = configurer.defaultCodecs();
                     defaults.jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper));
                     defaults.jackson2JsonEncoder(new Jackson2JsonEncoder(objectMapper));
+                    configurer.customCodecs().encoder(WebConfiguration.ndjsonEncoder(objectMapper));
                 })
                 .validator(validator)
                 .configureClient()
@@ -77,7 +90,7 @@ public class SiteControllerTest {
                                                     .build();
 
         Mockito.when(validator.supports(any())).thenReturn(true);
-        Mockito.when(bookingService.findAvailabilitiesBetween(start, end)).thenReturn(Flux.just(firstAvailableDate, secondAvailableDate));
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(firstAvailableDate, secondAvailableDate));
 
         this.webClient.get().uri("/site/availabilities", availabilityRequest)
                 .accept(MediaType.APPLICATION_JSON_UTF8)
@@ -85,4 +98,288 @@ public class SiteControllerTest {
                 .expectStatus().isOk()
                 .expectBody().json(localDateJacksonTester.write(Arrays.asList(firstAvailableDate, secondAvailableDate)).getJson());
     }
+
+    @Test
+    public void shouldReturnAvailabilitiesOfRequestedSite() throws IOException {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+        LocalDate availableDate = LocalDate.now().plusDays(1);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.getOccupancyVersion(2L)).thenReturn(3L);
+        Mockito.when(bookingService.findAvailabilitiesBetween(2L, start, end)).thenReturn(Flux.just(availableDate));
+
+        this.webClient.get().uri("/site/availabilities?site=2&from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, String.format("\"0-3-2-%s-%s-list\"", start, end))
+                .expectBody().json(localDateJacksonTester.write(Collections.singletonList(availableDate)).getJson());
+    }
+
+    @Test
+    public void shouldReturnRemainingUnitsOfEveryNight() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(2);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findCapacityBetween(2L, start, end)).thenReturn(Flux.just(new NightCapacity(start, 4), new NightCapacity(start.plusDays(1), 0)));
+
+        this.webClient.get().uri("/site/availabilities/capacity?site=2&from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].night").isEqualTo(start.toString())
+                .jsonPath("$[0].remaining").isEqualTo(4)
+                .jsonPath("$[1].remaining").isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReturnAvailableSites() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(3);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findSitesAvailableBetween(start, end)).thenReturn(Flux.just(1L, 3L));
+
+        this.webClient.get().uri("/site/availabilities/sites?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0]").isEqualTo(1)
+                .jsonPath("$[1]").isEqualTo(3);
+    }
+
+    @Test
+    public void shouldStreamAvailabilitiesAsNewlineDelimitedJson() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusMonths(1);
+        LocalDate firstAvailableDate = LocalDate.now().plusDays(1);
+        LocalDate secondAvailableDate = LocalDate.now().plusDays(2);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(firstAvailableDate, secondAvailableDate));
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.parseMediaType(Constants.APPLICATION_NDJSON_VALUE))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.parseMediaType(Constants.APPLICATION_NDJSON_VALUE))
+                .expectBody(String.class).isEqualTo(String.format("\"%s\"\n\"%s\"\n", firstAvailableDate, secondAvailableDate));
+    }
+
+    @Test
+    public void shouldStreamAvailabilitiesAsServerSentEvents() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusMonths(1);
+        LocalDate firstAvailableDate = LocalDate.now().plusDays(1);
+        LocalDate secondAvailableDate = LocalDate.now().plusDays(2);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(firstAvailableDate, secondAvailableDate));
+
+        FluxExchangeResult<LocalDate> result = this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(LocalDate.class);
+
+        StepVerifier.create(result.getResponseBody())
+                .expectNext(firstAvailableDate, secondAvailableDate)
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldKeepJsonArrayAsDefaultRepresentation() throws IOException {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusMonths(1);
+        LocalDate firstAvailableDate = LocalDate.now().plusDays(1);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(firstAvailableDate));
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.ALL)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBody().json(localDateJacksonTester.write(Arrays.asList(firstAvailableDate)).getJson());
+    }
+
+    @Test
+    public void shouldReturnAvailabilityBitmapAsBase64() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findAvailabilityBitmapBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Mono.just(BitSet.valueOf(new long[]{0b1111111101})));
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}&format=bitmap", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.from").isEqualTo(start.toString())
+                .jsonPath("$.nights").isEqualTo(10)
+                .jsonPath("$.bitmap").isEqualTo(Base64.getEncoder().encodeToString(new byte[]{(byte) 0b11111101, 0b11}));
+    }
+
+    @Test
+    public void shouldReturnRawAvailabilityBitmapPaddedToTheRequestedNights() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findAvailabilityBitmapBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Mono.just(BitSet.valueOf(new long[]{0b1})));
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_OCTET_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .expectHeader().valueEquals(Constants.AVAILABILITY_FROM_HEADER, start.toString())
+                .expectHeader().valueEquals(Constants.AVAILABILITY_NIGHTS_HEADER, "10")
+                .expectBody(byte[].class).isEqualTo(new byte[]{0b1, 0});
+    }
+
+    @Test
+    public void shouldReturnFreeIntervals() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findFreeIntervalsBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(new FreeInterval(start, start.plusDays(2)), new FreeInterval(start.plusDays(5), end)));
+
+        this.webClient.get().uri("/site/availabilities/intervals?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[1].start").isEqualTo(start.plusDays(5).toString())
+                .jsonPath("$[1].end").isEqualTo(end.toString());
+    }
+
+    @Test
+    public void shouldReturnFirstFreeWindowGivenNumberOfNights() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findFirstFreeWindow(Constants.DEFAULT_SITE_ID, start, end, 3)).thenReturn(Mono.just(new FreeInterval(start.plusDays(4), start.plusDays(7))));
+
+        this.webClient.get().uri("/site/availabilities/intervals?from={from}&to={to}&nights=3", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.start").isEqualTo(start.plusDays(4).toString())
+                .jsonPath("$.end").isEqualTo(start.plusDays(7).toString());
+    }
+
+    @Test
+    public void shouldReturnNotFoundGivenNoFreeWindow() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.findFirstFreeWindow(Constants.DEFAULT_SITE_ID, start, end, 3)).thenReturn(Mono.empty());
+
+        this.webClient.get().uri("/site/availabilities/intervals?from={from}&to={to}&nights=3", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void shouldReturnNotModifiedWithoutReadingAvailabilitiesGivenCurrentEntityTag() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.getOccupancyVersion(Constants.DEFAULT_SITE_ID)).thenReturn(7L);
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(start));
+
+        String eTag = this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseHeaders().getETag();
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                .expectBody().isEmpty();
+
+        Mockito.verify(bookingService, Mockito.times(1)).findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end);
+    }
+
+    @Test
+    public void shouldReturnAvailabilitiesGivenStaleEntityTag() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.getOccupancyEpoch()).thenReturn(42L);
+        Mockito.when(bookingService.getOccupancyVersion(Constants.DEFAULT_SITE_ID)).thenReturn(8L);
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(start));
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_NONE_MATCH, String.format("\"2a-7-1-%s-%s-list\"", start, end))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, String.format("\"2a-8-1-%s-%s-list\"", start, end));
+    }
+
+    @Test
+    public void shouldReturnAvailabilitiesGivenEntityTagOfPreviousServiceInstance() {
+        LocalDate start = LocalDate.now();
+        LocalDate end = LocalDate.now().plusDays(10);
+
+        Mockito.when(validator.supports(any())).thenReturn(true);
+        Mockito.when(bookingService.getOccupancyEpoch()).thenReturn(42L, 43L);
+        Mockito.when(bookingService.getOccupancyVersion(Constants.DEFAULT_SITE_ID)).thenReturn(7L);
+        Mockito.when(bookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, start, end)).thenReturn(Flux.just(start));
+
+        String eTag = this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseHeaders().getETag();
+
+        this.webClient.get().uri("/site/availabilities?from={from}&to={to}", start, end)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, String.format("\"2b-7-1-%s-%s-list\"", start, end));
+    }
+
+    @Test
+    public void shouldStreamAvailabilityChangesAsServerSentEvents() {
+        LocalDate night = LocalDate.now().plusDays(3);
+        AvailabilityChange change = new AvailabilityChange(Constants.DEFAULT_SITE_ID, 12L, Collections.singletonList(night), Collections.emptyList());
+
+        Mockito.when(bookingService.availabilityChanges()).thenReturn(Flux.just(change));
+
+        FluxExchangeResult<AvailabilityChange> result = this.webClient.get().uri("/site/availabilities/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(AvailabilityChange.class);
+
+        StepVerifier.create(result.getResponseBody())
+                .expectNext(change)
+                .verifyComplete();
+    }
 }
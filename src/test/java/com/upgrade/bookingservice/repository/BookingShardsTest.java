@@ -0,0 +1,52 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.util.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookingShardsTest {
+
+    private BookingRepository firstSite;
+
+    private BookingRepository secondSite;
+
+    private BookingShards bookingShards;
+
+    @Before
+    public void setUp() {
+        firstSite = new ConcurrentBookingRepository();
+        secondSite = new ConcurrentBookingRepository();
+        Map<Long, BookingRepository> shards = new HashMap<>();
+        shards.put(2L, secondSite);
+        shards.put(1L, firstSite);
+        bookingShards = new BookingShards(shards);
+    }
+
+    @Test
+    public void shouldReturnShardOfGivenSite() {
+        assertThat(bookingShards.forSite(1L)).isSameAs(firstSite);
+        assertThat(bookingShards.forSite(2L)).isSameAs(secondSite);
+    }
+
+    @Test
+    public void shouldReturnDefaultSiteGivenNoSite() {
+        assertThat(bookingShards.resolve(null)).isEqualTo(Constants.DEFAULT_SITE_ID);
+        assertThat(bookingShards.forSite(null)).isSameAs(firstSite);
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void shouldThrowNotFoundExceptionGivenUnknownSite() {
+        bookingShards.forSite(3L);
+    }
+
+    @Test
+    public void shouldListSitesInAscendingOrder() {
+        assertThat(bookingShards.getSiteIds()).containsExactly(1L, 2L);
+    }
+}
@@ -0,0 +1,206 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.util.Constants;
+import com.upgrade.bookingservice.util.MutableClock;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.upgrade.bookingservice.util.BookingFixtures.TODAY;
+import static com.upgrade.bookingservice.util.BookingFixtures.booking;
+import static com.upgrade.bookingservice.util.BookingFixtures.night;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ConcurrentBookingRepositoryTest {
+
+    private MutableClock clock;
+
+    private ConcurrentBookingRepository bookingRepository;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(TODAY);
+        bookingRepository = new ConcurrentBookingRepository(clock);
+    }
+
+    @Test
+    public void shouldReturnFreeNightsGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1L, 2, 4));
+
+        StepVerifier.create(bookingRepository.findAvailabilitiesBetween(night(1), night(6)))
+                .expectNext(TODAY.plusDays(1), TODAY.plusDays(4), TODAY.plusDays(5))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldRollBackClaimedNightsOnConflictingSave() {
+        bookingRepository.save(booking(1L, 3, 4));
+
+        assertThatThrownBy(() -> bookingRepository.save(booking(2L, 1, 4)))
+                .isInstanceOf(UnprocessableEntityException.class)
+                .hasMessage(String.format("Requested range of dates is in conflict on day %s", TODAY.plusDays(3)));
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+    }
+
+    @Test
+    public void shouldReturnFreeNightsBitmapGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1L, 2, 4));
+
+        BitSet free = bookingRepository.findAvailabilityBitmapBetween(night(1), night(6));
+
+        assertThat(free).isEqualTo(BitSet.valueOf(new long[]{0b11001}));
+    }
+
+    @Test
+    public void shouldReturnMaximalFreeIntervalsGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1L, 2, 4));
+        bookingRepository.save(booking(2L, 5, 6));
+
+        StepVerifier.create(bookingRepository.findFreeIntervalsBetween(night(0), night(8)))
+                .expectNext(new FreeInterval(TODAY, TODAY.plusDays(2)))
+                .expectNext(new FreeInterval(TODAY.plusDays(4), TODAY.plusDays(5)))
+                .expectNext(new FreeInterval(TODAY.plusDays(6), TODAY.plusDays(8)))
+                .verifyComplete();
+        assertThat(bookingRepository.findFirstFreeWindow(night(0), night(8), 2)).contains(new FreeInterval(TODAY, TODAY.plusDays(2)));
+        assertThat(bookingRepository.findFirstFreeWindow(night(1), night(8), 2)).contains(new FreeInterval(TODAY.plusDays(6), TODAY.plusDays(8)));
+    }
+
+    @Test
+    public void shouldMoveNightsOnUpdate() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        bookingRepository.update(booking(1L, 2, 5));
+
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(2), night(5))).isFalse();
+    }
+
+    @Test
+    public void shouldKeepPreviousNightsOnConflictingUpdate() {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 4, 6));
+
+        assertThatThrownBy(() -> bookingRepository.update(booking(1L, 2, 5)))
+                .isInstanceOf(UnprocessableEntityException.class)
+                .hasMessage(String.format("Requested range of dates is in conflict on day %s", TODAY.plusDays(4)));
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isFalse();
+        assertThat(bookingRepository.contains(night(3))).isFalse();
+    }
+
+    @Test
+    public void shouldOnlyReleaseOwnNightsOnCancel() {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 3, 5));
+
+        bookingRepository.cancel(booking(1L, 1, 4));
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+        assertThat(bookingRepository.contains(night(3))).isTrue();
+    }
+
+    @Test
+    public void shouldHandClaimedNightsOverToReservationOnConfirm() {
+        Booking claim = booking(-1L, 1, 3);
+        claim.setSiteId(2L);
+        bookingRepository.save(claim);
+
+        Booking confirmed = bookingRepository.confirm(claim, 1L);
+
+        assertThat(confirmed.getSiteId()).isEqualTo(2L);
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isFalse();
+        bookingRepository.cancel(claim);
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        bookingRepository.cancel(booking(1L, 1, 3));
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+    }
+
+    @Test
+    public void shouldFindFirstFreeWindowOnceTheWindowHasWrapped() {
+        bookingRepository.save(booking(3L, 1, 4));
+        clock.advanceDays(Constants.BOOKING_WINDOW_DAYS - 2);
+        bookingRepository.save(booking(1L, Constants.BOOKING_WINDOW_DAYS - 1, Constants.BOOKING_WINDOW_DAYS + 1));
+        bookingRepository.save(booking(2L, Constants.BOOKING_WINDOW_DAYS + 2, Constants.BOOKING_WINDOW_DAYS + 3));
+
+        assertThat(bookingRepository.findFirstFreeWindow(night(Constants.BOOKING_WINDOW_DAYS - 1), night(Constants.BOOKING_WINDOW_DAYS + 10), 3))
+                .contains(new FreeInterval(TODAY.plusDays(Constants.BOOKING_WINDOW_DAYS + 3), TODAY.plusDays(Constants.BOOKING_WINDOW_DAYS + 6)));
+        assertThat(bookingRepository.findFirstFreeWindow(night(Constants.BOOKING_WINDOW_DAYS - 1), night(Constants.BOOKING_WINDOW_DAYS + 5), 3))
+                .isEmpty();
+        bookingRepository.cancel(booking(2L, Constants.BOOKING_WINDOW_DAYS + 2, Constants.BOOKING_WINDOW_DAYS + 3));
+        assertThat(bookingRepository.findFirstFreeWindow(night(Constants.BOOKING_WINDOW_DAYS - 1), night(Constants.BOOKING_WINDOW_DAYS + 5), 3))
+                .contains(new FreeInterval(TODAY.plusDays(Constants.BOOKING_WINDOW_DAYS + 1), TODAY.plusDays(Constants.BOOKING_WINDOW_DAYS + 4)));
+    }
+
+    @Test
+    public void shouldTreatNightsLeftBehindAsFreeWhenDaysPass() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        clock.advanceDays(Constants.BOOKING_WINDOW_DAYS);
+
+        assertThat(bookingRepository.contains(night(Constants.BOOKING_WINDOW_DAYS + 1))).isFalse();
+        bookingRepository.save(booking(2L, Constants.BOOKING_WINDOW_DAYS + 1, Constants.BOOKING_WINDOW_DAYS + 3));
+        assertThat(bookingRepository.contains(night(Constants.BOOKING_WINDOW_DAYS + 2))).isTrue();
+    }
+
+    @Test
+    public void shouldNeverDoubleBookNightsUnderConcurrentSaves() throws Exception {
+        int threads = 8;
+        int attemptsPerThread = 2_000;
+        Map<Long, Booking> accepted = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            long firstId = 1L + (long) t * attemptsPerThread;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(firstId);
+                start.await();
+                for (long reservationId = firstId; reservationId < firstId + attemptsPerThread; reservationId++) {
+                    int arrival = 1 + random.nextInt(Constants.BOOKING_WINDOW_DAYS - 4);
+                    Booking booking = booking(reservationId, arrival, arrival + 1 + random.nextInt(3));
+                    try {
+                        bookingRepository.save(booking);
+                        accepted.put(reservationId, booking);
+                        if (random.nextBoolean()) {
+                            bookingRepository.cancel(booking);
+                            accepted.remove(reservationId);
+                        }
+                    } catch (UnprocessableEntityException e) {
+                        // lost the race for at least one night
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Map<LocalDateTime, Long> owners = new ConcurrentHashMap<>();
+        for (Booking booking : accepted.values()) {
+            for (LocalDateTime night = booking.getArrivalDate(); night.isBefore(booking.getDepartureDate()); night = night.plusDays(1)) {
+                assertThat(owners.put(night, booking.getReservationId())).isNull();
+                assertThat(bookingRepository.contains(night)).isTrue();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.FreeInterval;
+import com.upgrade.bookingservice.util.Constants;
+import com.upgrade.bookingservice.util.MutableClock;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+import java.util.BitSet;
+
+import static com.upgrade.bookingservice.util.BookingFixtures.TODAY;
+import static com.upgrade.bookingservice.util.BookingFixtures.booking;
+import static com.upgrade.bookingservice.util.BookingFixtures.night;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DayIndexedBookingRepositoryTest {
+
+    private MutableClock clock;
+
+    private DayIndexedBookingRepository bookingRepository;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(TODAY);
+        bookingRepository = new DayIndexedBookingRepository(clock);
+    }
+
+    @Test
+    public void shouldContainSavedNightsExceptDepartureDay() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        assertThat(bookingRepository.contains(night(2))).isTrue();
+        assertThat(bookingRepository.contains(night(3))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(0), night(2))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(3), night(5))).isTrue();
+    }
+
+    @Test
+    public void shouldReturnFreeNightsGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1L, 2, 4));
+
+        StepVerifier.create(bookingRepository.findAvailabilitiesBetween(night(1), night(6)))
+                .expectNext(TODAY.plusDays(1), TODAY.plusDays(4), TODAY.plusDays(5))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldReturnFreeNightsBitmapGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1L, 2, 4));
+
+        BitSet free = bookingRepository.findAvailabilityBitmapBetween(night(1), night(6));
+
+        assertThat(free).isEqualTo(BitSet.valueOf(new long[]{0b11001}));
+    }
+
+    @Test
+    public void shouldFindFirstFreeWindowOnceTheRingHasWrapped() {
+        clock.advanceDays(Constants.BOOKING_WINDOW_DAYS - 2);
+        bookingRepository.save(booking(1L, Constants.BOOKING_WINDOW_DAYS - 1, Constants.BOOKING_WINDOW_DAYS + 1));
+        bookingRepository.save(booking(2L, Constants.BOOKING_WINDOW_DAYS + 2, Constants.BOOKING_WINDOW_DAYS + 3));
+
+        assertThat(bookingRepository.findFirstFreeWindow(night(Constants.BOOKING_WINDOW_DAYS - 1), night(Constants.BOOKING_WINDOW_DAYS + 10), 3))
+                .contains(new FreeInterval(TODAY.plusDays(Constants.BOOKING_WINDOW_DAYS + 3), TODAY.plusDays(Constants.BOOKING_WINDOW_DAYS + 6)));
+        assertThat(bookingRepository.findFirstFreeWindow(night(Constants.BOOKING_WINDOW_DAYS - 1), night(Constants.BOOKING_WINDOW_DAYS + 5), 3))
+                .isEmpty();
+    }
+
+    @Test
+    public void shouldMoveNightsOnUpdate() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        bookingRepository.update(booking(1L, 2, 5));
+
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(2), night(5))).isFalse();
+    }
+
+    @Test
+    public void shouldThrowUnprocessableEntityExceptionOnUpdateGivenConflictingReservation() {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 4, 6));
+
+        assertThatThrownBy(() -> bookingRepository.update(booking(1L, 2, 5)))
+                .isInstanceOf(UnprocessableEntityException.class)
+                .hasMessage(String.format("Requested range of dates is in conflict on day %s", TODAY.plusDays(4)));
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+    }
+
+    @Test
+    public void shouldHandClaimedNightsOverToReservationOnConfirm() {
+        bookingRepository.save(booking(-1L, 1, 3));
+
+        bookingRepository.confirm(booking(-1L, 1, 3), 1L);
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isFalse();
+        bookingRepository.update(booking(1L, 2, 4));
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(2), night(4))).isFalse();
+    }
+
+    @Test
+    public void shouldReleaseNightsOnCancel() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        bookingRepository.cancel(booking(1L, 1, 3));
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+    }
+
+    @Test
+    public void shouldReleasePastNightsWhenDaysPass() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        clock.advanceDays(Constants.BOOKING_WINDOW_DAYS);
+
+        assertThat(bookingRepository.contains(night(Constants.BOOKING_WINDOW_DAYS + 1))).isFalse();
+        bookingRepository.save(booking(2L, Constants.BOOKING_WINDOW_DAYS + 1, Constants.BOOKING_WINDOW_DAYS + 2));
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.contains(night(Constants.BOOKING_WINDOW_DAYS + 1))).isTrue();
+    }
+
+    @Test
+    public void shouldThrowUnprocessableEntityExceptionGivenRangeOutsideBookingWindow() {
+        assertThatThrownBy(() -> bookingRepository.save(booking(1L, Constants.BOOKING_WINDOW_DAYS - 1, Constants.BOOKING_WINDOW_DAYS + 1)))
+                .isInstanceOf(UnprocessableEntityException.class);
+        assertThatThrownBy(() -> bookingRepository.save(booking(1L, -1, 1)))
+                .isInstanceOf(UnprocessableEntityException.class);
+    }
+}
@@ -0,0 +1,55 @@
+package com.upgrade.bookingservice.repository;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FreeNightTreeTest {
+
+    private static final int CAPACITY = 35;
+
+    @Test
+    public void shouldFindFirstFreeWindowAcrossTheEndOfTheRing() {
+        FreeNightTree tree = new FreeNightTree(CAPACITY);
+        for (int slot = 0; slot < 33; slot++) {
+            tree.set(slot, slot == 0 || slot == 1);
+        }
+
+        assertThat(tree.firstFree(32, 5, 3)).isEqualTo(1);
+        assertThat(tree.firstFree(33, 4, 4)).isEqualTo(0);
+        assertThat(tree.firstFree(30, 5, 3)).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldMatchLinearScanGivenRandomOccupancy() {
+        Random random = new Random(42);
+        FreeNightTree tree = new FreeNightTree(CAPACITY);
+        boolean[] free = new boolean[CAPACITY];
+        Arrays.fill(free, true);
+
+        for (int i = 0; i < 20_000; i++) {
+            int slot = random.nextInt(CAPACITY);
+            free[slot] = random.nextInt(3) != 0;
+            tree.set(slot, free[slot]);
+
+            int from = random.nextInt(CAPACITY);
+            int length = random.nextInt(CAPACITY + 1);
+            int nights = 1 + random.nextInt(5);
+            assertThat(tree.firstFree(from, length, nights)).isEqualTo(scan(free, from, length, nights));
+        }
+    }
+
+    private static int scan(boolean[] free, int from, int length, int nights) {
+        int run = 0;
+        for (int offset = 0; offset < length; offset++) {
+            run = free[(from + offset) % free.length] ? run + 1 : 0;
+            if (run == nights) {
+                return offset - nights + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,164 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.util.MutableClock;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.upgrade.bookingservice.util.BookingFixtures.TODAY;
+import static com.upgrade.bookingservice.util.BookingFixtures.booking;
+import static com.upgrade.bookingservice.util.BookingFixtures.night;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InMemoryBookingRepositoryTest {
+
+    private InMemoryBookingRepository bookingRepository;
+
+    @Before
+    public void setUp() {
+        bookingRepository = new InMemoryBookingRepository();
+    }
+
+    @Test
+    public void shouldReturnFreeNightsBitmapGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1000L, 2, 4));
+
+        BitSet free = bookingRepository.findAvailabilityBitmapBetween(night(1), night(6));
+
+        assertThat(free).isEqualTo(BitSet.valueOf(new long[]{0b11001}));
+    }
+
+    @Test
+    public void shouldMoveNightsOnUpdate() {
+        bookingRepository.save(booking(1000L, 1, 3));
+
+        bookingRepository.update(booking(1000L, 2, 5));
+
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(2), night(5))).isFalse();
+    }
+
+    @Test
+    public void shouldThrowUnprocessableEntityExceptionOnUpdateGivenConflictingReservation() {
+        bookingRepository.save(booking(1000L, 1, 3));
+        bookingRepository.save(booking(2000L, 4, 6));
+
+        assertThatThrownBy(() -> bookingRepository.update(booking(1000L, 2, 6)))
+                .isInstanceOf(UnprocessableEntityException.class)
+                .hasMessage(String.format("Requested range of dates is in conflict on day %s", TODAY.plusDays(4)));
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        assertThat(bookingRepository.contains(night(3))).isFalse();
+    }
+
+    @Test
+    public void shouldReportIndexSizeAsBookedNights() {
+        bookingRepository.save(booking(1000L, 1, 3));
+        bookingRepository.save(booking(2000L, 4, 7));
+
+        bookingRepository.cancel(booking(1000L, 1, 3));
+
+        assertThat(bookingRepository.indexSize()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldEvictNightsBeforeTodayOnly() {
+        MutableClock clock = new MutableClock(TODAY);
+        bookingRepository = new InMemoryBookingRepository(clock);
+        bookingRepository.save(booking(1000L, 0, 2));
+        bookingRepository.save(booking(2000L, 2, 5));
+
+        assertThat(bookingRepository.evictPastNights()).isZero();
+        clock.advanceDays(3);
+
+        assertThat(bookingRepository.evictPastNights()).isEqualTo(3);
+        assertThat(bookingRepository.indexSize()).isEqualTo(2);
+        assertThat(bookingRepository.isRangeAvailable(night(0), night(3))).isTrue();
+        assertThat(bookingRepository.isRangeAvailable(night(3), night(5))).isFalse();
+
+        bookingRepository.update(booking(2000L, 4, 6));
+        assertThat(bookingRepository.contains(night(3))).isFalse();
+        assertThat(bookingRepository.indexSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldOnlyReleaseOwnNightsOnCancel() {
+        bookingRepository.save(booking(1000L, 1, 3));
+        bookingRepository.save(booking(2000L, 3, 5));
+
+        bookingRepository.cancel(booking(1000L, 1, 4));
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+        assertThat(bookingRepository.contains(night(3))).isTrue();
+    }
+
+    @Test
+    public void shouldHandClaimedNightsOverToReservationOnConfirm() {
+        bookingRepository.save(booking(-1L, 1, 3));
+
+        bookingRepository.confirm(booking(-1L, 1, 3), 1L);
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isFalse();
+        bookingRepository.cancel(booking(-1L, 1, 3));
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        bookingRepository.cancel(booking(1L, 1, 3));
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+    }
+
+    @Test
+    public void shouldOnlyTouchNightsOfUpdatedReservationAsCalendarFills() {
+        CountingMap nights = new CountingMap();
+        bookingRepository = new InMemoryBookingRepository(new MutableClock(TODAY), nights);
+        bookingRepository.save(booking(1L, 1, 3));
+        for (long reservationId = 2; reservationId < 50_000; reservationId++) {
+            int arrival = (int) reservationId * 3;
+            bookingRepository.save(booking(reservationId, arrival, arrival + 3));
+        }
+        nights.removals = 0;
+
+        bookingRepository.update(booking(1L, 2, 3));
+
+        assertThat(nights.scans).isZero();
+        assertThat(nights.removals).isEqualTo(2);
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.contains(night(2))).isTrue();
+    }
+
+    // counts full scans of the night index and the nights removed from it
+    private static class CountingMap extends ConcurrentHashMap<LocalDateTime, Long> {
+
+        private int scans;
+        private int removals;
+
+        @Override
+        public KeySetView<LocalDateTime, Long> keySet() {
+            scans++;
+            return super.keySet();
+        }
+
+        @Override
+        public Collection<Long> values() {
+            scans++;
+            return super.values();
+        }
+
+        @Override
+        public Set<Map.Entry<LocalDateTime, Long>> entrySet() {
+            scans++;
+            return super.entrySet();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            removals++;
+            return super.remove(key, value);
+        }
+    }
+}
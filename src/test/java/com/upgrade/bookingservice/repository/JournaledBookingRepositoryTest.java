@@ -0,0 +1,161 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.util.MutableClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static com.upgrade.bookingservice.util.BookingFixtures.TODAY;
+import static com.upgrade.bookingservice.util.BookingFixtures.booking;
+import static com.upgrade.bookingservice.util.BookingFixtures.night;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournaledBookingRepositoryTest {
+
+    private static final int SMALL_CAPACITY = 16 + 4 * 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MutableClock clock;
+
+    private Path directory;
+
+    private JournaledBookingRepository bookingRepository;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(TODAY);
+        directory = folder.getRoot().toPath();
+        bookingRepository = new JournaledBookingRepository(directory, 4096, clock);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        bookingRepository.close();
+    }
+
+    @Test
+    public void shouldRecoverOccupancyByReplayingTheJournal() throws IOException {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 4, 6));
+        bookingRepository.update(booking(1L, 2, 4));
+        bookingRepository.cancel(booking(2L, 4, 6));
+
+        reopen(4096);
+
+        assertThat(bookingRepository.contains(night(1))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(2), night(4))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(4), night(6))).isTrue();
+    }
+
+    @Test
+    public void shouldCompactIntoSnapshotWhenTheJournalIsFull() throws IOException {
+        bookingRepository.close();
+        bookingRepository = new JournaledBookingRepository(directory, SMALL_CAPACITY, clock);
+
+        for (long reservationId = 1; reservationId <= 10; reservationId++) {
+            int arrival = (int) reservationId * 3;
+            bookingRepository.save(booking(reservationId, arrival, arrival + 2));
+            if (reservationId % 2 == 0) {
+                bookingRepository.cancel(booking(reservationId, arrival, arrival + 2));
+            }
+        }
+
+        reopen(SMALL_CAPACITY);
+
+        assertThat(directory.resolve("occupancy.snapshot")).exists();
+        for (int reservationId = 1; reservationId <= 10; reservationId++) {
+            assertThat(bookingRepository.contains(night(reservationId * 3))).isEqualTo(reservationId % 2 == 1);
+        }
+    }
+
+    @Test
+    public void shouldIgnoreTornRecordAtTheEndOfTheJournal() throws IOException {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 4, 6));
+        bookingRepository.close();
+
+        // flip a byte of the last record, as a crash in the middle of its append would leave it
+        try (RandomAccessFile journal = new RandomAccessFile(directory.resolve("occupancy.journal").toFile(), "rw")) {
+            journal.seek(16 + 32 + 10);
+            journal.write(0x7F);
+        }
+        bookingRepository = new JournaledBookingRepository(directory, 4096, clock);
+
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        assertThat(bookingRepository.contains(night(4))).isFalse();
+    }
+
+    @Test
+    public void shouldOnlyRestoreNightsThatAreStillAhead() throws IOException {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 3, 6));
+
+        clock.advanceDays(4);
+        reopen(4096);
+
+        assertThat(bookingRepository.contains(night(2))).isFalse();
+        assertThat(bookingRepository.contains(night(4))).isTrue();
+        assertThat(bookingRepository.contains(night(5))).isTrue();
+    }
+
+    @Test
+    public void shouldOnlyRecoverConfirmedClaims() throws IOException {
+        Booking confirmed = booking(-1L, 1, 3);
+        bookingRepository.save(confirmed);
+        bookingRepository.confirm(confirmed, 1L);
+        bookingRepository.save(booking(-2L, 4, 6));
+
+        reopen(4096);
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(4), night(6))).isTrue();
+    }
+
+    @Test
+    public void shouldReportReservationsRestoredFromTheJournal() throws IOException {
+        assertThat(bookingRepository.isRestored()).isFalse();
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 3, 6));
+
+        clock.advanceDays(4);
+        reopen(4096);
+
+        assertThat(bookingRepository.isRestored()).isTrue();
+        assertThat(bookingRepository.holds(booking(2L, 4, 6))).isTrue();
+        assertThat(bookingRepository.holds(booking(2L, 4, 7))).isFalse();
+        assertThat(bookingRepository.holds(booking(1L, 4, 4))).isFalse();
+    }
+
+    @Test
+    public void shouldSkipOverlappingReservationOnReplayInsteadOfFailing() throws IOException {
+        bookingRepository.close();
+        OccupancyJournal journal = new OccupancyJournal(directory, 4096);
+        journal.replay(new HashMap<>());
+        journal.append(OccupancyJournal.SAVE, 1L, TODAY.plusDays(1).toEpochDay(), TODAY.plusDays(3).toEpochDay());
+        journal.append(OccupancyJournal.SAVE, 2L, TODAY.plusDays(2).toEpochDay(), TODAY.plusDays(4).toEpochDay());
+        journal.close();
+
+        bookingRepository = new JournaledBookingRepository(directory, 4096, clock);
+
+        assertThat(bookingRepository.findRestoredBookings()).hasSize(1);
+        Booking kept = bookingRepository.findRestoredBookings().get(0);
+        assertThat(bookingRepository.holds(kept)).isTrue();
+        assertThat(bookingRepository.isRangeAvailable(kept.getArrivalDate(), kept.getDepartureDate())).isFalse();
+        assertThat(bookingRepository.contains(night(kept.getReservationId() == 1L ? 3 : 1))).isFalse();
+    }
+
+    private void reopen(int capacity) throws IOException {
+        bookingRepository.close();
+        bookingRepository = new JournaledBookingRepository(directory, capacity, clock);
+    }
+}
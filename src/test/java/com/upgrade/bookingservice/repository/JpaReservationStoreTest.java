@@ -0,0 +1,133 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.ConflictException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JpaReservationStoreTest {
+
+    @Mock
+    private CustomerReservation customerReservation;
+
+    @Mock
+    private CustomerReservationRepository customerReservationRepository;
+
+    private Scheduler persistenceScheduler;
+
+    private JpaReservationStore reservationStore;
+
+    @Before
+    public void setUp() {
+        persistenceScheduler = Schedulers.newSingle("persistence");
+        reservationStore = new JpaReservationStore(customerReservationRepository, persistenceScheduler);
+    }
+
+    @After
+    public void tearDown() {
+        persistenceScheduler.dispose();
+    }
+
+    @Test
+    public void shouldFindReservationOnPersistenceScheduler() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(customerReservationRepository.findById(reservationId)).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName()).startsWith("persistence");
+            return Optional.of(customerReservation);
+        });
+
+        StepVerifier.create(reservationStore.findById(reservationId))
+                .expectNext(customerReservation)
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldCompleteEmptyGivenUnknownReservationId() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(customerReservationRepository.findById(reservationId)).thenReturn(Optional.empty());
+
+        StepVerifier.create(reservationStore.findById(reservationId))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldSaveReservationOnPersistenceScheduler() {
+        Mockito.when(customerReservationRepository.save(customerReservation)).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName()).startsWith("persistence");
+            return customerReservation;
+        });
+
+        StepVerifier.create(reservationStore.save(customerReservation))
+                .expectNext(customerReservation)
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldThrowConflictExceptionGivenReservationSavedFromStaleVersion() {
+        Mockito.when(customerReservationRepository.save(customerReservation))
+                .thenThrow(new ObjectOptimisticLockingFailureException(CustomerReservation.class, 1L));
+
+        StepVerifier.create(reservationStore.save(customerReservation))
+                .expectError(ConflictException.class)
+                .verify();
+    }
+
+    @Test
+    public void shouldSaveAllReservationsInOneCallOnPersistenceScheduler() {
+        List<CustomerReservation> reservations = Arrays.asList(customerReservation, CustomerReservation.builder().build());
+
+        Mockito.when(customerReservationRepository.saveAll(reservations)).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName()).startsWith("persistence");
+            return reservations;
+        });
+
+        StepVerifier.create(reservationStore.saveAll(reservations))
+                .expectNext(reservations)
+                .verifyComplete();
+        Mockito.verify(customerReservationRepository, Mockito.never()).save(any());
+    }
+
+    @Test
+    public void shouldStreamCompletedReservationsPageByPage() {
+        LocalDateTime now = LocalDateTime.now();
+        CustomerReservation first = CustomerReservation.builder().id(1L).build();
+        CustomerReservation second = CustomerReservation.builder().id(2L).build();
+        Pageable firstPage = PageRequest.of(0, 1);
+
+        Mockito.when(customerReservationRepository.findByStatusAndDepartureDateAfter(eq(Status.COMPLETED), eq(now), any()))
+                .thenReturn(new SliceImpl<>(Collections.singletonList(first), firstPage, true))
+                .thenReturn(new SliceImpl<>(Collections.singletonList(second), firstPage.next(), false));
+
+        StepVerifier.create(reservationStore.findCompletedDepartingAfter(now))
+                .expectNext(first, second)
+                .verifyComplete();
+        Mockito.verify(customerReservationRepository, Mockito.times(2)).findByStatusAndDepartureDateAfter(eq(Status.COMPLETED), eq(now), any());
+    }
+}
@@ -0,0 +1,224 @@
+package com.upgrade.bookingservice.repository;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.util.Constants;
+import com.upgrade.bookingservice.util.MutableClock;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.upgrade.bookingservice.util.BookingFixtures.TODAY;
+import static com.upgrade.bookingservice.util.BookingFixtures.booking;
+import static com.upgrade.bookingservice.util.BookingFixtures.night;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PooledBookingRepositoryTest {
+
+    private static final int UNITS = 3;
+
+    private MutableClock clock;
+
+    private PooledBookingRepository bookingRepository;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(TODAY);
+        bookingRepository = new PooledBookingRepository(clock, UNITS);
+    }
+
+    @Test
+    public void shouldAdmitReservationsUntilEveryUnitIsTaken() {
+        for (long reservationId = 1; reservationId <= UNITS; reservationId++) {
+            assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isTrue();
+            bookingRepository.save(booking(reservationId, 1, 3));
+        }
+
+        assertThat(bookingRepository.isRangeAvailable(night(1), night(3))).isFalse();
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        assertThat(bookingRepository.contains(night(3))).isFalse();
+        assertThatThrownBy(() -> bookingRepository.save(booking(4L, 2, 4)))
+                .isInstanceOf(UnprocessableEntityException.class)
+                .hasMessage(String.format("Requested range of dates is in conflict on day %s", TODAY.plusDays(2)));
+    }
+
+    @Test
+    public void shouldReportNightsOutsideBookingWindowAsFreeLikeSingleUnitSite() {
+        ConcurrentBookingRepository singleUnit = new ConcurrentBookingRepository(clock);
+        bookingRepository.save(booking(1L, 0, 1));
+        singleUnit.save(booking(1L, 0, 1));
+        LocalDateTime before = night(-2);
+        LocalDateTime after = night(Constants.BOOKING_WINDOW_DAYS + 2);
+
+        assertThat(bookingRepository.findAvailabilityBitmapBetween(before, after)).isEqualTo(singleUnit.findAvailabilityBitmapBetween(before, after));
+        assertThat(bookingRepository.contains(night(-1))).isEqualTo(singleUnit.contains(night(-1))).isFalse();
+        assertThat(bookingRepository.contains(night(Constants.BOOKING_WINDOW_DAYS))).isEqualTo(singleUnit.contains(night(Constants.BOOKING_WINDOW_DAYS))).isFalse();
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(-1), night(0))).containsExactly(UNITS);
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(Constants.BOOKING_WINDOW_DAYS), night(Constants.BOOKING_WINDOW_DAYS + 1))).containsExactly(UNITS);
+        StepVerifier.create(bookingRepository.findFreeIntervalsBetween(before, after).collectList())
+                .expectNext(singleUnit.findFreeIntervalsBetween(before, after).collectList().block())
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldReportRemainingUnitsGivenArrivalDateAndDepartureDate() {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 2, 4));
+
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(0), night(5))).containsExactly(3, 2, 1, 2, 3);
+    }
+
+    @Test
+    public void shouldReturnNightsWithUnitsLeftGivenArrivalDateAndDepartureDate() {
+        for (long reservationId = 1; reservationId <= UNITS; reservationId++) {
+            bookingRepository.save(booking(reservationId, 2, 4));
+        }
+
+        StepVerifier.create(bookingRepository.findAvailabilitiesBetween(night(1), night(6)))
+                .expectNext(TODAY.plusDays(1), TODAY.plusDays(4), TODAY.plusDays(5))
+                .verifyComplete();
+        assertThat(bookingRepository.findAvailabilityBitmapBetween(night(1), night(6))).isEqualTo(BitSet.valueOf(new long[]{0b11001}));
+    }
+
+    @Test
+    public void shouldGiveTakenUnitsBackOnConflictingSave() {
+        bookingRepository = new PooledBookingRepository(clock, 1);
+        bookingRepository.save(booking(1L, 3, 4));
+
+        assertThatThrownBy(() -> bookingRepository.save(booking(2L, 1, 4)))
+                .isInstanceOf(UnprocessableEntityException.class);
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(1), night(4))).containsExactly(1, 1, 0);
+    }
+
+    @Test
+    public void shouldOnlyMoveGainedAndLostNightsOnUpdate() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        bookingRepository.update(booking(1L, 2, 5));
+
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(0), night(6))).containsExactly(3, 3, 2, 2, 2, 3);
+    }
+
+    @Test
+    public void shouldKeepPreviousNightsOnConflictingUpdate() {
+        bookingRepository = new PooledBookingRepository(clock, 1);
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 4, 6));
+
+        assertThatThrownBy(() -> bookingRepository.update(booking(1L, 2, 5)))
+                .isInstanceOf(UnprocessableEntityException.class)
+                .hasMessage(String.format("Requested range of dates is in conflict on day %s", TODAY.plusDays(4)));
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(0), night(6))).containsExactly(1, 0, 0, 1, 0, 0);
+    }
+
+    @Test
+    public void shouldGiveUnitsBackOnceOnCancel() {
+        bookingRepository.save(booking(1L, 1, 3));
+        bookingRepository.save(booking(2L, 1, 3));
+
+        bookingRepository.cancel(booking(1L, 1, 3));
+        bookingRepository.cancel(booking(1L, 1, 3));
+
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(1), night(3))).containsExactly(2, 2);
+    }
+
+    @Test
+    public void shouldHandClaimedUnitsOverToReservationOnConfirm() {
+        Booking claim = booking(-1L, 1, 3);
+        bookingRepository.save(claim);
+
+        bookingRepository.confirm(claim, 1L);
+
+        bookingRepository.cancel(claim);
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(1), night(3))).containsExactly(2, 2);
+        bookingRepository.cancel(booking(1L, 1, 3));
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(1), night(3))).containsExactly(3, 3);
+    }
+
+    @Test
+    public void shouldTreatNightsLeftBehindAsFreeWhenDaysPass() {
+        bookingRepository.save(booking(1L, 1, 3));
+
+        clock.advanceDays(Constants.BOOKING_WINDOW_DAYS);
+
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(Constants.BOOKING_WINDOW_DAYS + 1), night(Constants.BOOKING_WINDOW_DAYS + 3)))
+                .containsExactly(UNITS, UNITS);
+    }
+
+    @Test
+    public void shouldEvictDepartedReservationsOnly() {
+        bookingRepository.save(booking(1L, 1, 2));
+        bookingRepository.save(booking(2L, 1, 4));
+
+        clock.advanceDays(2);
+
+        assertThat(bookingRepository.evictPastNights()).isEqualTo(1);
+        assertThat(bookingRepository.indexSize()).isEqualTo(1);
+        bookingRepository.cancel(booking(2L, 1, 4));
+        assertThat(bookingRepository.findRemainingUnitsBetween(night(2), night(4))).containsExactly(UNITS, UNITS);
+    }
+
+    @Test
+    public void shouldNeverTakeMoreUnitsThanTheSiteHasUnderConcurrentSaves() throws Exception {
+        int threads = 8;
+        int attemptsPerThread = 2_000;
+        Map<Long, Booking> accepted = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            long firstId = 1L + (long) t * attemptsPerThread;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(firstId);
+                start.await();
+                for (long reservationId = firstId; reservationId < firstId + attemptsPerThread; reservationId++) {
+                    int arrival = 1 + random.nextInt(Constants.BOOKING_WINDOW_DAYS - 4);
+                    Booking booking = booking(reservationId, arrival, arrival + 1 + random.nextInt(3));
+                    try {
+                        bookingRepository.save(booking);
+                        accepted.put(reservationId, booking);
+                        if (random.nextBoolean()) {
+                            bookingRepository.cancel(booking);
+                            accepted.remove(reservationId);
+                        }
+                    } catch (UnprocessableEntityException e) {
+                        // lost the race for the last unit of at least one night
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int[] taken = new int[Constants.BOOKING_WINDOW_DAYS];
+        for (Booking booking : accepted.values()) {
+            for (LocalDateTime night = booking.getArrivalDate(); night.isBefore(booking.getDepartureDate()); night = night.plusDays(1)) {
+                taken[(int) (night.toLocalDate().toEpochDay() - TODAY.toEpochDay())]++;
+            }
+        }
+        int[] remaining = bookingRepository.findRemainingUnitsBetween(night(0), night(Constants.BOOKING_WINDOW_DAYS));
+        for (int i = 0; i < taken.length; i++) {
+            assertThat(taken[i]).isLessThanOrEqualTo(UNITS);
+            assertThat(remaining[i]).as("units left on night %d", i).isEqualTo(UNITS - taken[i]);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.ServiceUnavailableException;
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookingCommandLoopTest {
+
+    private static final Long SITE_ID = 1L;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BookingCommandLoop commandLoop;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        commandLoop = new BookingCommandLoop(1, 64, new ReservationMetrics(meterRegistry));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        commandLoop.close();
+    }
+
+    @Test
+    public void shouldApplyCommandsInSubmissionOrder() {
+        List<Integer> applied = new CopyOnWriteArrayList<>();
+
+        StepVerifier.create(Flux.range(0, 2).concatMap(i -> commandLoop.submit(SITE_ID, () -> {
+            applied.add(i);
+            return i;
+        }, null, null)))
+                .expectNext(0, 1)
+                .verifyComplete();
+        assertThat(applied).containsExactly(0, 1);
+    }
+
+    @Test
+    public void shouldPublishEverySiteOncePerBatch() throws InterruptedException {
+        commandLoop.close();
+        commandLoop = new BookingCommandLoop(100, 64, new ReservationMetrics(meterRegistry));
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger publications = new AtomicInteger();
+
+        Mono<String> first = commandLoop.submit(SITE_ID, () -> {
+            writerBusy.countDown();
+            await(release);
+            return "first";
+        }, site -> publications.incrementAndGet(), null).cache();
+        first.subscribe();
+        writerBusy.await(5, TimeUnit.SECONDS);
+        Flux<Integer> queued = Flux.merge(Flux.range(0, 10).map(i -> commandLoop.submit(SITE_ID, () -> i, site -> publications.incrementAndGet(), null).cache()))
+                .cache();
+        queued.subscribe();
+        release.countDown();
+
+        StepVerifier.create(first).expectNext("first").verifyComplete();
+        StepVerifier.create(queued).expectNextCount(10).verifyComplete();
+        assertThat(publications.get()).isEqualTo(2);
+        assertThat(meterRegistry.summary("booking.writer.batch").totalAmount()).isEqualTo(11.0);
+    }
+
+    @Test
+    public void shouldPropagateErrorOfMutation() {
+        StepVerifier.create(commandLoop.submit(SITE_ID, () -> {
+            throw new UnprocessableEntityException(UnprocessableEntityException.Reason.CONFLICT, "conflict");
+        }, site -> {
+        }, null))
+                .expectError(UnprocessableEntityException.class)
+                .verify();
+    }
+
+    @Test
+    public void shouldRefuseCommandsBeyondBufferSize() throws InterruptedException {
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        commandLoop.submit(SITE_ID, () -> {
+            writerBusy.countDown();
+            await(release);
+            return 0;
+        }, null, null).subscribe();
+        writerBusy.await(5, TimeUnit.SECONDS);
+        Mono<Integer> second = commandLoop.submit(SITE_ID, () -> 1, null, null).cache();
+        Mono<Integer> third = commandLoop.submit(SITE_ID, () -> 2, null, null).cache();
+        second.subscribe(value -> {
+        }, error -> {
+        });
+        third.subscribe(value -> {
+        }, error -> {
+        });
+
+        StepVerifier.create(third).expectError(ServiceUnavailableException.class).verify();
+        release.countDown();
+        StepVerifier.create(second).expectNext(1).verifyComplete();
+    }
+
+    @Test
+    public void shouldAcceptWriteFollowingPersistedChangeGivenFullBuffer() throws InterruptedException {
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        commandLoop.submit(SITE_ID, () -> {
+            writerBusy.countDown();
+            await(release);
+            return 0;
+        }, null, null).subscribe();
+        writerBusy.await(5, TimeUnit.SECONDS);
+        Mono<Integer> claim = commandLoop.submit(SITE_ID, () -> 1, null, null).cache();
+        Mono<Integer> confirm = commandLoop.submitPersisted(SITE_ID, () -> 2, null).cache();
+        claim.subscribe(value -> {
+        }, error -> {
+        });
+        confirm.subscribe(value -> {
+        }, error -> {
+        });
+        release.countDown();
+
+        StepVerifier.create(confirm).expectNext(2).verifyComplete();
+    }
+
+    @Test
+    public void shouldApplyWriteFollowingPersistedChangeForCancelledCaller() throws InterruptedException {
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch applied = new CountDownLatch(1);
+
+        commandLoop.submit(SITE_ID, () -> {
+            writerBusy.countDown();
+            await(release);
+            return 0;
+        }, null, null).subscribe();
+        writerBusy.await(5, TimeUnit.SECONDS);
+        Disposable caller = commandLoop.submitPersisted(SITE_ID, () -> {
+            applied.countDown();
+            return "confirm";
+        }, null).subscribe();
+        caller.dispose();
+        release.countDown();
+
+        assertThat(applied.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldUndoMutationAppliedForCancelledCaller() throws InterruptedException {
+        CountDownLatch applying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch undone = new CountDownLatch(1);
+
+        Disposable caller = commandLoop.submit(SITE_ID, () -> {
+            applying.countDown();
+            await(release);
+            return "claim";
+        }, null, claim -> undone.countDown()).subscribe();
+        applying.await(5, TimeUnit.SECONDS);
+        caller.dispose();
+        release.countDown();
+
+        assertThat(undone.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ConcurrentBookingRepository;
+import com.upgrade.bookingservice.repository.JournaledBookingRepository;
+import com.upgrade.bookingservice.repository.ReservationStore;
+import com.upgrade.bookingservice.util.Constants;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookingIndexLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private ReservationStore reservationStore;
+
+    @Mock
+    private BookingService bookingService;
+
+    private BookingRepository bookingRepository;
+
+    private BookingIndexLoader bookingIndexLoader;
+
+    @Before
+    public void setUp() {
+        bookingRepository = new ConcurrentBookingRepository();
+        bookingIndexLoader = new BookingIndexLoader(reservationStore, new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, bookingRepository)), bookingService);
+    }
+
+    @Test
+    public void shouldReportOutOfServiceUntilLoaded() {
+        assertThat(bookingIndexLoader.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    }
+
+    @Test
+    public void shouldLoadRemainingNightsOfCompletedReservations() {
+        Mockito.when(reservationStore.findCompletedDepartingAfter(any())).thenReturn(Flux.just(
+                reservation(1L, -2, 2),
+                reservation(2L, 5, 7),
+                reservation(3L, 6, 8),
+                reservation(4L, 9, 10, 2L)));
+
+        bookingIndexLoader.load();
+
+        assertThat(bookingRepository.contains(night(0))).isTrue();
+        assertThat(bookingRepository.contains(night(1))).isTrue();
+        assertThat(bookingRepository.contains(night(2))).isFalse();
+        assertThat(bookingRepository.isRangeAvailable(night(5), night(7))).isFalse();
+        assertThat(bookingRepository.contains(night(7))).isFalse();
+
+        Health health = bookingIndexLoader.health();
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("reservations", 2L).containsEntry("conflicts", 1L)
+                .containsEntry("unknownSites", 1L).containsKey("loadTimeMillis");
+        Mockito.verify(bookingService).refreshAvailabilities();
+    }
+
+    @Test
+    public void shouldOnlyBringReservationsOfShardRestoredFromItsJournalBackToTheirDatabaseDates() {
+        BookingRepository restoredRepository = Mockito.mock(BookingRepository.class);
+        Mockito.when(restoredRepository.isRestored()).thenReturn(true);
+        Mockito.when(restoredRepository.holds(any())).thenReturn(true, false, false);
+        Mockito.when(restoredRepository.update(any()))
+                .thenAnswer(invocation -> invocation.getArgument(0))
+                .thenThrow(new UnprocessableEntityException(UnprocessableEntityException.Reason.CONFLICT, "conflict"));
+        bookingIndexLoader = new BookingIndexLoader(reservationStore, new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, restoredRepository)), bookingService);
+        Mockito.when(reservationStore.findCompletedDepartingAfter(any())).thenReturn(Flux.just(
+                reservation(1L, 1, 3),
+                reservation(2L, 5, 7),
+                reservation(3L, 8, 9)));
+
+        bookingIndexLoader.load();
+
+        Mockito.verify(restoredRepository, Mockito.never()).save(any());
+        Mockito.verify(restoredRepository).update(Mockito.argThat(booking -> booking.getReservationId() == 2L
+                && booking.getArrivalDate().toLocalDate().equals(LocalDate.now().plusDays(5))
+                && booking.getDepartureDate().toLocalDate().equals(LocalDate.now().plusDays(7))));
+        assertThat(bookingIndexLoader.health().getDetails()).containsEntry("reservations", 0L)
+                .containsEntry("restoredFromJournal", 1L).containsEntry("reconciledWithDatabase", 1L).containsEntry("conflicts", 1L);
+    }
+
+    // the journal is not forced to disk on every record, a crash can lose writes the database already committed
+    @Test
+    public void shouldRestoreDatabaseDatesOfReservationsLostFromJournal() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        JournaledBookingRepository journaled = new JournaledBookingRepository(directory, 4096);
+        journaled.save(booking(1L, 1, 3));
+        journaled.save(booking(2L, 5, 7));
+        journaled.close();
+        journaled = new JournaledBookingRepository(directory, 4096);
+        bookingIndexLoader = new BookingIndexLoader(reservationStore, new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, journaled)), bookingService);
+        Mockito.when(reservationStore.findCompletedDepartingAfter(any())).thenReturn(Flux.just(
+                reservation(1L, 1, 3),
+                reservation(2L, 6, 8),
+                reservation(3L, 10, 12)));
+
+        bookingIndexLoader.load();
+
+        assertThat(journaled.contains(night(5))).isFalse();
+        assertThat(journaled.contains(night(7))).isTrue();
+        assertThat(journaled.contains(night(11))).isTrue();
+        assertThat(bookingIndexLoader.health().getDetails()).containsEntry("restoredFromJournal", 1L)
+                .containsEntry("reconciledWithDatabase", 2L).containsEntry("conflicts", 0L);
+        journaled.close();
+    }
+
+    @Test
+    public void shouldFreeNightsOfJournaledReservationsNotCompletedInDatabase() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        JournaledBookingRepository journaled = new JournaledBookingRepository(directory, 4096);
+        journaled.save(booking(1L, 1, 3));
+        journaled.save(booking(2L, 5, 7));
+        journaled.close();
+        journaled = new JournaledBookingRepository(directory, 4096);
+        bookingIndexLoader = new BookingIndexLoader(reservationStore, new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, journaled)), bookingService);
+        Mockito.when(reservationStore.findCompletedDepartingAfter(any())).thenReturn(Flux.just(reservation(1L, 1, 3)));
+
+        bookingIndexLoader.load();
+
+        assertThat(journaled.contains(night(1))).isTrue();
+        assertThat(journaled.isRangeAvailable(night(5), night(7))).isTrue();
+        assertThat(journaled.findRestoredBookings()).extracting(Booking::getReservationId).containsExactly(1L);
+        assertThat(bookingIndexLoader.health().getDetails()).containsEntry("restoredFromJournal", 1L)
+                .containsEntry("releasedFromJournal", 1L);
+        journaled.close();
+    }
+
+    private static CustomerReservation reservation(Long reservationId, int arrivalOffset, int departureOffset) {
+        return reservation(reservationId, arrivalOffset, departureOffset, Constants.DEFAULT_SITE_ID);
+    }
+
+    private static CustomerReservation reservation(Long reservationId, int arrivalOffset, int departureOffset, Long siteId) {
+        return CustomerReservation.builder()
+                .id(reservationId)
+                .siteId(siteId)
+                .status(com.upgrade.bookingservice.model.Status.COMPLETED)
+                .arrivalDate(night(arrivalOffset))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(departureOffset), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+    }
+
+    private static Booking booking(Long reservationId, int arrivalOffset, int departureOffset) {
+        return Booking.builder()
+                .reservationId(reservationId)
+                .arrivalDate(night(arrivalOffset))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(departureOffset), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+    }
+
+    private static LocalDateTime night(int offset) {
+        return LocalDateTime.of(LocalDate.now().plusDays(offset), Constants.DEFAULT_CHECK_IN_TIME);
+    }
+}
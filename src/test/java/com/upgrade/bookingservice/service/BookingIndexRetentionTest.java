@@ -0,0 +1,45 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.util.Constants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookingIndexRetentionTest {
+
+    @Mock
+    private BookingRepository bookingRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BookingIndexRetention bookingIndexRetention;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        bookingIndexRetention = new BookingIndexRetention(new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, bookingRepository)), new ReservationMetrics(meterRegistry));
+    }
+
+    @Test
+    public void shouldCountEvictedNightsOnEveryTick() {
+        Mockito.when(bookingRepository.evictPastNights()).thenReturn(3, 0, 2);
+
+        for (int tick = 0; tick < 3; tick++) {
+            bookingIndexRetention.evictPastNights();
+        }
+
+        assertThat(meterRegistry.counter("booking.index.evicted").count()).isEqualTo(5.0);
+        Mockito.verify(bookingRepository, Mockito.times(3)).evictPastNights();
+    }
+}
@@ -1,15 +1,22 @@
 package com.upgrade.bookingservice.service;
 
+import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.AvailabilityChange;
 import com.upgrade.bookingservice.model.Booking;
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.NightCapacity;
 import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
 import com.upgrade.bookingservice.util.Constants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Hooks;
@@ -18,13 +25,22 @@ import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CustomerBookingServiceTest {
 
+    private static final Long OTHER_SITE_ID = 2L;
+
     @Mock
     private Booking booking;
 
@@ -34,37 +50,119 @@ public class CustomerBookingServiceTest {
     @Mock
     private BookingRepository bookingRepository;
 
-    @InjectMocks
+    @Spy
+    private ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+
+    @Mock
+    private BookingRepository otherSiteRepository;
+
     private CustomerBookingService customerBookingService;
 
 
     @Before
     public void setUp() {
         Hooks.onOperatorDebug();
+
+        Map<Long, BookingRepository> shards = new HashMap<>();
+        shards.put(Constants.DEFAULT_SITE_ID, bookingRepository);
+        shards.put(OTHER_SITE_ID, otherSiteRepository);
+        // mocked ids default to 0, which is no configured site
+        Mockito.lenient().when(customerReservation.getSiteId()).thenReturn(Constants.DEFAULT_SITE_ID);
+        Mockito.lenient().when(booking.getSiteId()).thenReturn(Constants.DEFAULT_SITE_ID);
+        customerBookingService = new CustomerBookingService(new BookingShards(shards), reservationMetrics, Optional.empty());
     }
 
     @Test
-    public void shouldReturnCustomerReservationOnCreateBooking() {
-        Long reservationId = new Random().nextLong();
+    public void shouldClaimNightsUnderProvisionalIdOnClaimBooking() {
         LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
         LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
 
-
-        Mockito.when(customerReservation.getId()).thenReturn(reservationId);
         Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
         Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
         Mockito.when(bookingRepository.isRangeAvailable(arrivalDate, departureDate)).thenReturn(true);
         Mockito.when(bookingRepository.save(any())).thenReturn(booking);
 
-        Mono<CustomerReservation> reservation = customerBookingService.createBooking(customerReservation);
+        Mono<Booking> claim = customerBookingService.claimBooking(customerReservation);
 
-        StepVerifier.create(reservation)
+        StepVerifier.create(claim)
+                .expectNextMatches(booking -> booking.getReservationId() < 0
+                        && booking.getArrivalDate().equals(arrivalDate)
+                        && booking.getDepartureDate().equals(departureDate))
+                .verifyComplete();
+        Mockito.verify(bookingRepository).save(any());
+    }
+
+    @Test
+    public void shouldNotClaimNightsGivenUnavailableRange() {
+        LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
+        Mockito.when(bookingRepository.isRangeAvailable(arrivalDate, departureDate)).thenReturn(false);
+
+        StepVerifier.create(customerBookingService.claimBooking(customerReservation))
+                .expectError(UnprocessableEntityException.class)
+                .verify();
+        Mockito.verify(bookingRepository, Mockito.never()).save(any());
+    }
+
+    @Test
+    public void shouldHandClaimedNightsToReservationOnConfirmBooking() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(customerReservation.getId()).thenReturn(reservationId);
+
+        StepVerifier.create(customerBookingService.confirmBooking(booking, customerReservation))
                 .expectNext(customerReservation)
                 .verifyComplete();
+        Mockito.verify(bookingRepository).confirm(booking, reservationId);
+    }
+
+    @Test
+    public void shouldGiveClaimedNightsBackOnReleaseBooking() {
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(new BitSet());
+
+        StepVerifier.create(customerBookingService.releaseBooking(booking))
+                .verifyComplete();
+        Mockito.verify(bookingRepository).cancel(booking);
     }
 
     @Test
-    public void shouldReturnCustomerReservationOnUpdateBooking() {
+    public void shouldClaimOnlyNightsNotHeldYetOnClaimRebooking() {
+        CustomerReservation previous = reservationBetween(1, 3);
+        CustomerReservation reservation = reservationBetween(2, 5);
+
+        Mockito.when(bookingRepository.isRangeAvailable(any(), any())).thenReturn(true);
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(new BitSet());
+
+        StepVerifier.create(customerBookingService.claimRebooking(previous, reservation))
+                .assertNext(claims -> assertThat(claims).hasSize(1).allMatch(claim -> claim.getReservationId() < 0
+                        && claim.getArrivalDate().toLocalDate().equals(previous.getDepartureDate().toLocalDate())
+                        && claim.getDepartureDate().equals(reservation.getDepartureDate())))
+                .verifyComplete();
+        Mockito.verify(bookingRepository).save(any());
+        Mockito.verify(bookingRepository, Mockito.never()).update(any());
+    }
+
+    @Test
+    public void shouldGiveEveryClaimBackGivenNightRefusedOnEitherSideOnClaimRebooking() {
+        CustomerReservation previous = reservationBetween(2, 3);
+        CustomerReservation reservation = reservationBetween(1, 5);
+
+        Mockito.when(bookingRepository.isRangeAvailable(any(), any())).thenReturn(true, false);
+
+        StepVerifier.create(customerBookingService.claimRebooking(previous, reservation))
+                .expectError(UnprocessableEntityException.class)
+                .verify();
+        Mockito.verify(bookingRepository).save(any());
+        Mockito.verify(bookingRepository).cancel(Mockito.argThat(claim -> claim.getReservationId() < 0
+                && claim.getArrivalDate().equals(reservation.getArrivalDate())
+                && claim.getDepartureDate().toLocalDate().equals(previous.getArrivalDate().toLocalDate())));
+    }
+
+    @Test
+    public void shouldGiveClaimsUpWhileMovingReservationOnUpdateBooking() {
         Long reservationId = new Random().nextLong();
         LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
         LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
@@ -74,11 +172,16 @@ public class CustomerBookingServiceTest {
         Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
         Mockito.when(bookingRepository.update(any())).thenReturn(booking);
 
-        Mono<CustomerReservation> reservation = customerBookingService.updateBooking(customerReservation);
+        Mono<CustomerReservation> reservation = customerBookingService.updateBooking(customerReservation, Collections.singletonList(booking));
 
         StepVerifier.create(reservation)
                 .expectNext(customerReservation)
                 .verifyComplete();
+        InOrder inOrder = Mockito.inOrder(bookingRepository);
+        inOrder.verify(bookingRepository).cancel(booking);
+        inOrder.verify(bookingRepository).update(Mockito.argThat(updated -> reservationId.equals(updated.getReservationId())
+                && updated.getArrivalDate().equals(arrivalDate)
+                && updated.getDepartureDate().equals(departureDate)));
     }
 
     @Test
@@ -98,17 +201,219 @@ public class CustomerBookingServiceTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void shouldPickAnotherOccupancyEpochForEveryServiceInstance() {
+        CustomerBookingService restarted = new CustomerBookingService(new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, bookingRepository)),
+                reservationMetrics, Optional.empty());
+
+        assertThat(restarted.getOccupancyEpoch()).isNotEqualTo(customerBookingService.getOccupancyEpoch());
+    }
+
     @Test
     public void shouldReturnAvailabilitiesGivenArrivalDateAndDepartureDate() {
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        free.clear(2);
+
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free);
+
+        Flux<LocalDate> availabilities = customerBookingService.findAvailabilitiesBetween(Constants.DEFAULT_SITE_ID, LocalDate.now().plusDays(1), LocalDate.now().plusDays(4));
+
+        StepVerifier.create(availabilities)
+                .expectNext(LocalDate.now().plusDays(1), LocalDate.now().plusDays(3))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldReturnAvailabilityBitmapGivenArrivalDateAndDepartureDate() {
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        free.clear(1);
+
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free);
+
+        Mono<BitSet> availabilities = customerBookingService.findAvailabilityBitmapBetween(Constants.DEFAULT_SITE_ID, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3));
+
+        StepVerifier.create(availabilities)
+                .expectNext(BitSet.valueOf(new long[]{0b10}))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldPublishNewSnapshotVersionOnOccupancyChange() {
         LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
         LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        BitSet booked = (BitSet) free.clone();
+        booked.clear(1);
 
-        Mockito.when(bookingRepository.findAvailabilitiesBetween(arrivalDate, departureDate)).thenReturn(Flux.empty());
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
+        Mockito.when(bookingRepository.isRangeAvailable(arrivalDate, departureDate)).thenReturn(true);
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free, booked);
 
-        Flux<LocalDate> availabilities = customerBookingService.findAvailabilitiesBetween(arrivalDate.toLocalDate(), departureDate.toLocalDate());
+        AvailabilitySnapshot before = customerBookingService.currentSnapshot(Constants.DEFAULT_SITE_ID);
+        customerBookingService.claimBooking(customerReservation).block();
+        AvailabilitySnapshot after = customerBookingService.currentSnapshot(Constants.DEFAULT_SITE_ID);
 
-        StepVerifier.create(availabilities)
-                .expectNextCount(0)
+        assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+        assertThat(before.isFree(arrivalDate.toLocalDate())).isTrue();
+        assertThat(after.isFree(arrivalDate.toLocalDate())).isFalse();
+    }
+
+    @Test
+    public void shouldPublishNightsThatBecameBookedOnClaimBooking() {
+        LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        BitSet booked = (BitSet) free.clone();
+        booked.clear(1);
+
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
+        Mockito.when(bookingRepository.isRangeAvailable(arrivalDate, departureDate)).thenReturn(true);
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free, booked);
+        long version = customerBookingService.currentSnapshot(Constants.DEFAULT_SITE_ID).getVersion();
+
+        StepVerifier.create(customerBookingService.availabilityChanges())
+                .then(() -> customerBookingService.claimBooking(customerReservation).block())
+                .expectNext(new AvailabilityChange(Constants.DEFAULT_SITE_ID, version + 1, Collections.singletonList(arrivalDate.toLocalDate()), Collections.emptyList()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void shouldPublishFirstWriteAfterAvailabilitiesWereRefreshedOnStartup() {
+        LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        BitSet booked = (BitSet) free.clone();
+        booked.clear(1);
+
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
+        Mockito.when(bookingRepository.isRangeAvailable(arrivalDate, departureDate)).thenReturn(true);
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free, booked);
+        Mockito.when(otherSiteRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free);
+
+        customerBookingService.refreshAvailabilities();
+
+        StepVerifier.create(customerBookingService.availabilityChanges())
+                .then(() -> customerBookingService.claimBooking(customerReservation).block())
+                .assertNext(change -> assertThat(change.getBooked()).containsExactly(arrivalDate.toLocalDate()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void shouldKeepVersionGivenRefreshThatChangesNoNight() {
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        BitSet booked = (BitSet) free.clone();
+        booked.clear(1);
+
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free, free, booked);
+        long version = customerBookingService.currentSnapshot(Constants.DEFAULT_SITE_ID).getVersion();
+
+        StepVerifier.create(customerBookingService.availabilityChanges())
+                .then(() -> {
+                    customerBookingService.refreshSnapshot(Constants.DEFAULT_SITE_ID);
+                    assertThat(customerBookingService.getOccupancyVersion(Constants.DEFAULT_SITE_ID)).isEqualTo(version);
+                    customerBookingService.refreshSnapshot(Constants.DEFAULT_SITE_ID);
+                })
+                .assertNext(change -> assertThat(change.getVersion()).isEqualTo(version + 1))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void shouldDropOldestChangesForSlowSubscriber() {
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        BitSet booked = (BitSet) free.clone();
+        booked.clear(1);
+        AtomicInteger refreshes = new AtomicInteger();
+
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any()))
+                .thenAnswer(invocation -> refreshes.getAndIncrement() % 2 == 0 ? free : booked);
+        long version = customerBookingService.currentSnapshot(Constants.DEFAULT_SITE_ID).getVersion();
+        int published = Constants.AVAILABILITY_CHANGES_BUFFER_SIZE + 10;
+
+        StepVerifier.create(customerBookingService.availabilityChanges(), 0)
+                .then(() -> {
+                    for (int i = 0; i < published; i++) {
+                        customerBookingService.refreshSnapshot(Constants.DEFAULT_SITE_ID);
+                    }
+                })
+                .thenRequest(1)
+                .assertNext(change -> assertThat(change.getVersion()).isEqualTo(version + published - Constants.AVAILABILITY_CHANGES_BUFFER_SIZE + 1))
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextCount(Constants.AVAILABILITY_CHANGES_BUFFER_SIZE - 1)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void shouldClaimNightsOnShardOfReservationSite() {
+        LocalDateTime arrivalDate = LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME);
+        LocalDateTime departureDate = LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME);
+
+        Mockito.when(customerReservation.getSiteId()).thenReturn(OTHER_SITE_ID);
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
+        Mockito.when(otherSiteRepository.isRangeAvailable(arrivalDate, departureDate)).thenReturn(true);
+        Mockito.when(otherSiteRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(new BitSet());
+
+        StepVerifier.create(customerBookingService.claimBooking(customerReservation))
+                .expectNextMatches(booking -> booking.getSiteId().equals(OTHER_SITE_ID))
                 .verifyComplete();
+        Mockito.verify(otherSiteRepository).save(any());
+        Mockito.verifyZeroInteractions(bookingRepository);
+    }
+
+    @Test
+    public void shouldNotClaimNightsGivenUnknownSite() {
+        Mockito.when(customerReservation.getSiteId()).thenReturn(3L);
+
+        StepVerifier.create(customerBookingService.claimBooking(customerReservation))
+                .expectError(NotFoundException.class)
+                .verify();
+    }
+
+    @Test
+    public void shouldReturnSitesFreeForEveryNightGivenArrivalDateAndDepartureDate() {
+        BitSet free = new BitSet();
+        free.set(0, Constants.BOOKING_WINDOW_DAYS);
+        BitSet booked = (BitSet) free.clone();
+        booked.clear(2);
+
+        Mockito.when(bookingRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(booked);
+        Mockito.when(otherSiteRepository.findAvailabilityBitmapBetween(any(), any())).thenReturn(free);
+
+        StepVerifier.create(customerBookingService.findSitesAvailableBetween(LocalDate.now().plusDays(1), LocalDate.now().plusDays(4)))
+                .expectNext(OTHER_SITE_ID)
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldReturnRemainingUnitsOfEveryNightGivenArrivalDateAndDepartureDate() {
+        LocalDate start = LocalDate.now().plusDays(1);
+
+        Mockito.when(otherSiteRepository.findRemainingUnitsBetween(any(), any())).thenReturn(new int[]{2, 0});
+
+        StepVerifier.create(customerBookingService.findCapacityBetween(OTHER_SITE_ID, start, start.plusDays(2)))
+                .expectNext(new NightCapacity(start, 2), new NightCapacity(start.plusDays(1), 0))
+                .verifyComplete();
+    }
+
+    private static CustomerReservation reservationBetween(int arrivalOffset, int departureOffset) {
+        return CustomerReservation.builder()
+                .id(new Random().nextLong())
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(arrivalOffset), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(departureOffset), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
     }
 }
@@ -0,0 +1,305 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.ConflictException;
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.Status;
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ConcurrentBookingRepository;
+import com.upgrade.bookingservice.repository.InMemoryBookingRepository;
+import com.upgrade.bookingservice.repository.ReservationStore;
+import com.upgrade.bookingservice.util.Constants;
+import com.upgrade.bookingservice.util.MutableClock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.upgrade.bookingservice.util.BookingFixtures.TODAY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+public class CustomerReservationServiceConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 1_000;
+
+    private final Map<Long, CustomerReservation> rows = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // runs once, on the persistence thread, right before the next conditional update checks the version
+    private final AtomicReference<Runnable> beforeUpdate = new AtomicReference<>();
+
+    private final Scheduler persistenceScheduler = Schedulers.fromExecutorService(Executors.newFixedThreadPool(THREADS));
+
+    private MutableClock clock;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BookingRepository bookingRepository;
+
+    private ReservationStore reservationStore;
+
+    private BookingCommandLoop commandLoop;
+
+    private CustomerReservationService customerReservationService;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(TODAY);
+        meterRegistry = new SimpleMeterRegistry();
+        ReservationStore reservationStore = Mockito.mock(ReservationStore.class);
+        Mockito.when(reservationStore.findById(anyLong()))
+                .thenAnswer(invocation -> Mono.justOrEmpty(rows.get(invocation.<Long>getArgument(0))).map(CustomerReservationServiceConcurrencyTest::copy));
+        Mockito.when(reservationStore.save(any()))
+                .thenAnswer(invocation -> Mono.fromCallable(() -> write(invocation.getArgument(0))).subscribeOn(persistenceScheduler));
+
+        this.reservationStore = reservationStore;
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (commandLoop != null) {
+            commandLoop.close();
+        }
+    }
+
+    @Test
+    public void shouldNeverDoubleBookNightsUnderConcurrentCreateUpdateAndCancel() throws Exception {
+        useBookingIndex(new ConcurrentBookingRepository(clock), Optional.empty());
+
+        shouldNeverDoubleBookNights();
+    }
+
+    // the in-memory index is not safe for concurrent writers on its own, the writer thread is what keeps it consistent
+    @Test
+    public void shouldNeverDoubleBookNightsUnderConcurrentCreateUpdateAndCancelWithSingleWriter() throws Exception {
+        ReservationMetrics reservationMetrics = new ReservationMetrics(new SimpleMeterRegistry());
+        commandLoop = new BookingCommandLoop(1024, 64, reservationMetrics);
+        useBookingIndex(new InMemoryBookingRepository(clock), Optional.of(commandLoop));
+
+        shouldNeverDoubleBookNights();
+    }
+
+    // without night locks, the writer thread alone decides who gets a night; a write refused by the database must not
+    // have handed any of the reservation's nights to it in the meantime
+    @Test
+    public void shouldKeepNightsOfReservationWhoseWriteFailedWithSingleWriter() {
+        commandLoop = new BookingCommandLoop(1024, 64, new ReservationMetrics(new SimpleMeterRegistry()));
+        useBookingIndex(new InMemoryBookingRepository(clock), Optional.of(commandLoop));
+        CustomerReservation created = customerReservationService.create(reservationBetween(null, 2, 4)).block();
+        Mockito.doReturn(Mono.error(new IllegalStateException("database down"))).when(reservationStore)
+                .save(Mockito.argThat(reservation -> reservation != null && reservation.getId() != null));
+
+        StepVerifier.create(customerReservationService.update(reservationBetween(created.getId(), 3, 6)))
+                .expectError(IllegalStateException.class)
+                .verify();
+        StepVerifier.create(customerReservationService.cancel(created.getId()))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        StepVerifier.create(customerReservationService.create(reservationBetween(null, 2, 4)))
+                .expectError(UnprocessableEntityException.class)
+                .verify();
+        StepVerifier.create(customerReservationService.create(reservationBetween(null, 4, 6)))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    // a write landing between the reread and the conditional update makes the service start over from a fresh read
+    @Test
+    public void shouldRetryUpdateFromFreshReadGivenReservationWrittenConcurrently() {
+        useBookingIndex(new ConcurrentBookingRepository(clock), Optional.empty());
+        CustomerReservation created = customerReservationService.create(reservationBetween(null, 2, 4)).block();
+        beforeUpdate.set(() -> rows.computeIfPresent(created.getId(), (id, row) -> bumped(row)));
+
+        StepVerifier.create(customerReservationService.update(reservationBetween(created.getId(), 3, 6)))
+                .assertNext(updated -> assertThat(updated.getVersion()).isEqualTo(2L))
+                .verifyComplete();
+
+        assertThat(meterRegistry.get("booking.version.conflicts").tags("operation", "update").counter().count()).isEqualTo(1);
+        assertThat(rows.get(created.getId()).getArrivalDate()).isEqualTo(reservationBetween(null, 3, 6).getArrivalDate());
+        assertThat(bookingRepository.contains(reservationBetween(null, 5, 6).getArrivalDate())).isTrue();
+        assertThat(bookingRepository.contains(reservationBetween(null, 2, 3).getArrivalDate())).isFalse();
+    }
+
+    // the write is given up after the last retry, which the controller answers with 409, and the nights stay as they were
+    @Test
+    public void shouldGiveUpWithConflictGivenReservationWrittenConcurrentlyOnEveryRetry() {
+        useBookingIndex(new ConcurrentBookingRepository(clock), Optional.empty());
+        CustomerReservation created = customerReservationService.create(reservationBetween(null, 2, 4)).block();
+        Runnable concurrentWrite = new Runnable() {
+            @Override
+            public void run() {
+                rows.computeIfPresent(created.getId(), (id, row) -> bumped(row));
+                beforeUpdate.set(this);
+            }
+        };
+        beforeUpdate.set(concurrentWrite);
+
+        StepVerifier.create(customerReservationService.update(reservationBetween(created.getId(), 3, 6)))
+                .expectError(ConflictException.class)
+                .verify();
+
+        assertThat(meterRegistry.get("booking.version.conflicts").tags("operation", "update").counter().count()).isEqualTo(4);
+        assertThat(bookingRepository.contains(reservationBetween(null, 2, 3).getArrivalDate())).isTrue();
+        assertThat(bookingRepository.contains(reservationBetween(null, 5, 6).getArrivalDate())).isFalse();
+    }
+
+    private void useBookingIndex(BookingRepository bookingRepository, Optional<BookingCommandLoop> commandLoop) {
+        this.bookingRepository = bookingRepository;
+        ReservationMetrics reservationMetrics = new ReservationMetrics(meterRegistry);
+        BookingShards bookingShards = new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, bookingRepository));
+        customerReservationService = new CustomerReservationService(new CustomerBookingService(bookingShards, reservationMetrics, commandLoop), reservationStore,
+                new ReservationLocks(bookingShards, reservationMetrics, commandLoop), reservationMetrics);
+    }
+
+    private void shouldNeverDoubleBookNights() throws Exception {
+        Map<Long, CustomerReservation> confirmed = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                List<Long> owned = new ArrayList<>();
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    int operation = random.nextInt(10);
+                    try {
+                        if (operation < 6 || owned.isEmpty()) {
+                            CustomerReservation created = customerReservationService.create(reservation(null, random)).block();
+                            owned.add(created.getId());
+                            confirmed.put(created.getId(), copy(created));
+                        } else if (operation < 9) {
+                            Long reservationId = owned.get(random.nextInt(owned.size()));
+                            CustomerReservation updated = customerReservationService.update(reservation(reservationId, random)).block();
+                            confirmed.put(reservationId, copy(updated));
+                        } else {
+                            Long reservationId = owned.remove(random.nextInt(owned.size()));
+                            customerReservationService.cancel(reservationId).block();
+                            confirmed.remove(reservationId);
+                        }
+                    } catch (UnprocessableEntityException e) {
+                        // conflicting nights are expected to be rejected
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(confirmed).isNotEmpty();
+        Map<LocalDateTime, Long> owners = new HashMap<>();
+        for (CustomerReservation reservation : confirmed.values()) {
+            for (LocalDateTime night = reservation.getArrivalDate(); night.isBefore(reservation.getDepartureDate()); night = night.plusDays(1)) {
+                assertThat(owners.put(night, reservation.getId())).as("night %s double booked", night).isNull();
+                assertThat(bookingRepository.contains(night)).isTrue();
+            }
+        }
+        // rejected creates leave neither a row nor a provisional claim behind
+        for (CustomerReservation row : rows.values()) {
+            if (row.getStatus() == Status.COMPLETED) {
+                assertThat(confirmed).as("phantom reservation %s", row.getId()).containsKey(row.getId());
+            }
+        }
+        for (int day = 0; day < Constants.BOOKING_WINDOW_DAYS; day++) {
+            LocalDateTime night = LocalDateTime.of(TODAY.plusDays(day), Constants.DEFAULT_CHECK_IN_TIME);
+            assertThat(bookingRepository.contains(night)).as("night %s claimed by nobody", night).isEqualTo(owners.containsKey(night));
+        }
+    }
+
+    private static CustomerReservation reservation(Long reservationId, Random random) {
+        int arrival = 1 + random.nextInt(Constants.BOOKING_WINDOW_DAYS - 5);
+        int nights = 1 + random.nextInt(Constants.MAXIMUM_DAYS_ALLOWED_FOR_A_RESERVATION);
+        return CustomerReservation.builder()
+                .id(reservationId)
+                .fullName("John Doe")
+                .email("john@doe.com")
+                .arrivalDate(LocalDateTime.of(TODAY.plusDays(arrival), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(TODAY.plusDays(arrival + nights), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+    }
+
+    private static CustomerReservation reservationBetween(Long reservationId, int arrival, int departure) {
+        return CustomerReservation.builder()
+                .id(reservationId)
+                .fullName("John Doe")
+                .email("john@doe.com")
+                .arrivalDate(LocalDateTime.of(TODAY.plusDays(arrival), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(TODAY.plusDays(departure), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+    }
+
+    // inserts start at version 0, and an update only lands on a row still at the version it was read with, like the
+    // conditional update hibernate issues on the version column
+    private CustomerReservation write(CustomerReservation reservation) {
+        if (reservation.getId() == null) {
+            CustomerReservation inserted = copy(reservation);
+            inserted.setId(sequence.incrementAndGet());
+            inserted.setVersion(0L);
+            rows.put(inserted.getId(), inserted);
+            return copy(inserted);
+        }
+        Runnable interleaved = beforeUpdate.getAndSet(null);
+        if (interleaved != null) {
+            interleaved.run();
+        }
+        CustomerReservation updated = bumped(reservation);
+        CustomerReservation current = rows.computeIfPresent(reservation.getId(),
+                (id, row) -> Objects.equals(row.getVersion(), reservation.getVersion()) ? updated : row);
+        if (current != updated) {
+            throw new ConflictException(String.format("Reservation with id %s was modified concurrently", reservation.getId()));
+        }
+        return copy(updated);
+    }
+
+    private static CustomerReservation bumped(CustomerReservation reservation) {
+        CustomerReservation bumped = copy(reservation);
+        bumped.setVersion(reservation.getVersion() + 1);
+        return bumped;
+    }
+
+    private static CustomerReservation copy(CustomerReservation reservation) {
+        return CustomerReservation.builder()
+                .id(reservation.getId())
+                .siteId(reservation.getSiteId())
+                .fullName(reservation.getFullName())
+                .email(reservation.getEmail())
+                .arrivalDate(reservation.getArrivalDate())
+                .departureDate(reservation.getDepartureDate())
+                .status(reservation.getStatus())
+                .version(reservation.getVersion())
+                .build();
+    }
+}
@@ -1,27 +1,45 @@
 package com.upgrade.bookingservice.service;
 
+import com.upgrade.bookingservice.exception.ConflictException;
 import com.upgrade.bookingservice.exception.NotFoundException;
+import com.upgrade.bookingservice.exception.PreconditionFailedException;
+import com.upgrade.bookingservice.exception.ServiceUnavailableException;
 import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.Booking;
 import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.model.ReservationOutcome;
 import com.upgrade.bookingservice.model.Status;
-import com.upgrade.bookingservice.repository.CustomerReservationRepository;
+import com.upgrade.bookingservice.repository.BookingRepository;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ConcurrentBookingRepository;
+import com.upgrade.bookingservice.repository.ReservationStore;
 import com.upgrade.bookingservice.util.Constants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import reactor.core.Disposable;
 import reactor.core.publisher.Hooks;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
 import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+
 @RunWith(MockitoJUnitRunner.class)
 public class CustomerReservationServiceTest {
 
@@ -32,22 +50,31 @@ public class CustomerReservationServiceTest {
     private BookingService bookingService;
 
     @Mock
-    private CustomerReservationRepository customerReservationRepository;
+    private ReservationStore reservationStore;
+
+    @Mock
+    private Booking booking;
 
-    @InjectMocks
     private CustomerReservationService customerReservationService;
 
+    private SimpleMeterRegistry meterRegistry;
+
 
     @Before
     public void setUp() {
         Hooks.onOperatorDebug();
+        meterRegistry = new SimpleMeterRegistry();
+        ReservationMetrics reservationMetrics = new ReservationMetrics(meterRegistry);
+        // mocked ids default to 0, which is no configured site
+        Mockito.lenient().when(customerReservation.getSiteId()).thenReturn(Constants.DEFAULT_SITE_ID);
+        customerReservationService = new CustomerReservationService(bookingService, reservationStore, new ReservationLocks(new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, new ConcurrentBookingRepository())), reservationMetrics, Optional.empty()), reservationMetrics);
     }
 
     @Test
     public void shouldReturnCustomerReservationGivenReservationId() {
         Long reservationId = new Random().nextLong();
 
-        Mockito.when(customerReservationRepository.findById(reservationId)).thenReturn(Optional.of(customerReservation));
+        Mockito.when(reservationStore.findById(reservationId)).thenReturn(Mono.just(customerReservation));
 
         Mono<CustomerReservation> reservation = customerReservationService.findById(reservationId);
 
@@ -60,7 +87,7 @@ public class CustomerReservationServiceTest {
     public void shouldReturnNotFoundExceptionGivenWrongReservationId() {
         Long reservationId = new Random().nextLong();
 
-        Mockito.when(customerReservationRepository.findById(reservationId)).thenReturn(Optional.empty());
+        Mockito.when(reservationStore.findById(reservationId)).thenReturn(Mono.empty());
 
         Mono<CustomerReservation> reservation = customerReservationService.findById(reservationId);
 
@@ -94,8 +121,9 @@ public class CustomerReservationServiceTest {
                 .status(Status.COMPLETED)
                 .build();
 
-        Mockito.when(customerReservationRepository.save(reservationRequest)).thenReturn(expectedReservation);
-        Mockito.when(bookingService.createBooking(expectedReservation)).thenReturn(Mono.just(expectedReservation));
+        Mockito.when(bookingService.claimBooking(reservationRequest)).thenReturn(Mono.just(booking));
+        Mockito.when(reservationStore.save(reservationRequest)).thenReturn(Mono.just(expectedReservation));
+        Mockito.when(bookingService.confirmBooking(booking, expectedReservation)).thenReturn(Mono.just(expectedReservation));
 
         Mono<CustomerReservation> reservation = customerReservationService.create(reservationRequest);
 
@@ -104,6 +132,222 @@ public class CustomerReservationServiceTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void shouldNotPersistReservationGivenUnavailableNights() {
+        CustomerReservation reservationRequest = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now(), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+
+        Mockito.when(bookingService.claimBooking(reservationRequest))
+                .thenReturn(Mono.error(new UnprocessableEntityException(UnprocessableEntityException.Reason.UNAVAILABLE, "Requested range of dates is unavailable")));
+
+        StepVerifier.create(customerReservationService.create(reservationRequest))
+                .expectError(UnprocessableEntityException.class)
+                .verify();
+
+        Mockito.verify(reservationStore, Mockito.never()).save(any());
+    }
+
+    @Test
+    public void shouldTimeCreateAsCancelledGivenCallerLeftBeforeItEnded() {
+        CustomerReservation reservationRequest = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now(), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+
+        Mockito.when(bookingService.claimBooking(reservationRequest)).thenReturn(Mono.never());
+
+        customerReservationService.create(reservationRequest).subscribe().dispose();
+
+        assertThat(meterRegistry.get("booking.operations").tags("operation", "create", "outcome", "cancelled").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReleaseClaimedNightsGivenFailedPersist() {
+        CustomerReservation reservationRequest = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now(), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+
+        Mockito.when(bookingService.claimBooking(reservationRequest)).thenReturn(Mono.just(booking));
+        Mockito.when(reservationStore.save(reservationRequest)).thenReturn(Mono.error(new IllegalStateException("database down")));
+        Mockito.when(bookingService.releaseBooking(booking)).thenReturn(Mono.empty());
+
+        StepVerifier.create(customerReservationService.create(reservationRequest))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        Mockito.verify(bookingService).releaseBooking(booking);
+        Mockito.verify(bookingService, Mockito.never()).confirmBooking(any(), any());
+    }
+
+    @Test
+    public void shouldConfirmClaimGivenCallerLeftWhileReservationWasPersisting() {
+        CustomerReservation reservationRequest = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now(), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        MonoProcessor<CustomerReservation> write = MonoProcessor.create();
+
+        Mockito.when(bookingService.claimBooking(reservationRequest)).thenReturn(Mono.just(booking));
+        Mockito.when(reservationStore.save(reservationRequest)).thenReturn(write);
+        Mockito.when(bookingService.confirmBooking(booking, reservationRequest)).thenReturn(Mono.just(reservationRequest));
+
+        customerReservationService.create(reservationRequest).subscribe().dispose();
+        Mockito.verify(bookingService, Mockito.never()).releaseBooking(any());
+        write.onNext(reservationRequest);
+
+        Mockito.verify(bookingService).confirmBooking(booking, reservationRequest);
+        Mockito.verify(bookingService, Mockito.never()).releaseBooking(any());
+    }
+
+    @Test
+    public void shouldPersistAvailableItemsTogetherAndRejectTheOthersOnCreateAll() {
+        Long reservationId = new Random().nextLong();
+        CustomerReservation available = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        CustomerReservation unavailable = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(3), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        UnprocessableEntityException rejection = new UnprocessableEntityException(UnprocessableEntityException.Reason.UNAVAILABLE, "Requested range of dates is unavailable");
+
+        Mockito.when(bookingService.claimBooking(available)).thenReturn(Mono.just(booking));
+        Mockito.when(bookingService.claimBooking(unavailable)).thenReturn(Mono.error(rejection));
+        Mockito.when(reservationStore.saveAll(Collections.singletonList(available))).thenAnswer(invocation -> {
+            available.setId(reservationId);
+            return Mono.just(Collections.singletonList(available));
+        });
+        Mockito.when(bookingService.confirmBooking(booking, available)).thenReturn(Mono.just(available));
+
+        StepVerifier.create(customerReservationService.createAll(Arrays.asList(unavailable, available)))
+                .expectNext(Arrays.asList(ReservationOutcome.rejected(unavailable, rejection), ReservationOutcome.created(available)))
+                .verifyComplete();
+
+        assertThat(available.getId()).isEqualTo(reservationId);
+        assertThat(available.getStatus()).isEqualTo(Status.COMPLETED);
+        Mockito.verify(reservationStore, Mockito.never()).save(any());
+    }
+
+    @Test
+    public void shouldReleaseEveryClaimGivenFailedBatchPersist() {
+        CustomerReservation first = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        CustomerReservation second = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(3), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        Booking secondBooking = Mockito.mock(Booking.class);
+
+        Mockito.when(bookingService.claimBooking(first)).thenReturn(Mono.just(booking));
+        Mockito.when(bookingService.claimBooking(second)).thenReturn(Mono.just(secondBooking));
+        Mockito.when(reservationStore.saveAll(any())).thenReturn(Mono.error(new IllegalStateException("database down")));
+        Mockito.when(bookingService.releaseBooking(any())).thenReturn(Mono.empty());
+
+        StepVerifier.create(customerReservationService.createAll(Arrays.asList(first, second)))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        Mockito.verify(bookingService).releaseBooking(booking);
+        Mockito.verify(bookingService).releaseBooking(secondBooking);
+        Mockito.verify(bookingService, Mockito.never()).confirmBooking(any(), any());
+    }
+
+    @Test
+    public void shouldReleaseEarlierClaimsGivenLaterClaimFailsOtherwiseThanRejected() {
+        CustomerReservation first = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        CustomerReservation second = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(3), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        CustomerReservation third = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(5), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(6), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        Booking secondBooking = Mockito.mock(Booking.class);
+
+        Mockito.when(bookingService.claimBooking(first)).thenReturn(Mono.just(booking));
+        Mockito.when(bookingService.claimBooking(second)).thenReturn(Mono.just(secondBooking));
+        Mockito.when(bookingService.claimBooking(third)).thenReturn(Mono.error(new ServiceUnavailableException("writer busy")));
+        Mockito.when(bookingService.releaseBooking(any())).thenReturn(Mono.empty());
+
+        StepVerifier.create(customerReservationService.createAll(Arrays.asList(first, second, third)))
+                .expectError(ServiceUnavailableException.class)
+                .verify();
+
+        Mockito.verify(bookingService).releaseBooking(booking);
+        Mockito.verify(bookingService).releaseBooking(secondBooking);
+        Mockito.verify(reservationStore, Mockito.never()).saveAll(any());
+    }
+
+    @Test
+    public void shouldReleaseEarlierClaimsGivenBatchCancelledBetweenTwoClaims() {
+        CustomerReservation first = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        CustomerReservation second = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(3), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+
+        Mockito.when(bookingService.claimBooking(first)).thenReturn(Mono.just(booking));
+        Mockito.when(bookingService.claimBooking(second)).thenReturn(Mono.never());
+        Mockito.when(bookingService.releaseBooking(any())).thenReturn(Mono.empty());
+
+        customerReservationService.createAll(Arrays.asList(first, second)).subscribe().dispose();
+
+        Mockito.verify(bookingService).releaseBooking(booking);
+        Mockito.verify(reservationStore, Mockito.never()).saveAll(any());
+    }
+
+    @Test
+    public void shouldReleaseEveryClaimOnceOnlyGivenBatchWriteFailedAfterCallerLeft() {
+        CustomerReservation first = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        MonoProcessor<List<CustomerReservation>> write = MonoProcessor.create();
+
+        Mockito.when(bookingService.claimBooking(first)).thenReturn(Mono.just(booking));
+        Mockito.when(reservationStore.saveAll(any())).thenReturn(write);
+        Mockito.when(bookingService.releaseBooking(any())).thenReturn(Mono.empty());
+
+        customerReservationService.createAll(Collections.singletonList(first)).subscribe().dispose();
+        Mockito.verify(bookingService, Mockito.never()).releaseBooking(any());
+        write.onError(new IllegalStateException("database down"));
+
+        Mockito.verify(bookingService, Mockito.times(1)).releaseBooking(booking);
+        Mockito.verify(bookingService, Mockito.never()).confirmBooking(any(), any());
+    }
+
+    @Test
+    public void shouldConfirmEveryClaimGivenBatchWriteCommittedAfterCallerLeft() {
+        CustomerReservation first = CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .build();
+        MonoProcessor<List<CustomerReservation>> write = MonoProcessor.create();
+
+        Mockito.when(bookingService.claimBooking(first)).thenReturn(Mono.just(booking));
+        Mockito.when(reservationStore.saveAll(any())).thenReturn(write);
+        Mockito.when(bookingService.confirmBooking(booking, first)).thenReturn(Mono.just(first));
+
+        customerReservationService.createAll(Collections.singletonList(first)).subscribe().dispose();
+        write.onNext(Collections.singletonList(first));
+
+        Mockito.verify(bookingService).confirmBooking(booking, first);
+        Mockito.verify(bookingService, Mockito.never()).releaseBooking(any());
+    }
+
     @Test
     public void shouldUpdateCustomerReservationGivenReservationUpdate() {
         Long reservationId = new Random().nextLong();
@@ -131,10 +375,13 @@ public class CustomerReservationServiceTest {
                 .status(Status.COMPLETED)
                 .build();
 
-        Mockito.when(customerReservationRepository.findById(updateReservationRequest.getId())).thenReturn(Optional.of(customerReservation));
+        Mockito.when(reservationStore.findById(updateReservationRequest.getId())).thenReturn(Mono.just(customerReservation));
         Mockito.when(customerReservation.getStatus()).thenReturn(Status.COMPLETED);
-        Mockito.when(bookingService.updateBooking(customerReservation)).thenReturn(Mono.just(customerReservation));
-        Mockito.when(customerReservationRepository.save(customerReservation)).thenReturn(expectedReservation);
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
+        Mockito.when(bookingService.claimRebooking(any(), Mockito.eq(customerReservation))).thenReturn(Mono.just(Collections.emptyList()));
+        Mockito.when(bookingService.updateBooking(customerReservation, Collections.emptyList())).thenReturn(Mono.just(customerReservation));
+        Mockito.when(reservationStore.save(customerReservation)).thenReturn(Mono.just(expectedReservation));
 
         Mono<CustomerReservation> reservation = customerReservationService.update(updateReservationRequest);
 
@@ -143,6 +390,168 @@ public class CustomerReservationServiceTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void shouldRetryUpdateFromFreshReadGivenVersionConflictOnSave() {
+        Long reservationId = new Random().nextLong();
+        CustomerReservation reservationUpdate = updateOf(reservationId, null);
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.just(Collections.singletonList(booking)));
+        Mockito.when(bookingService.releaseBooking(booking)).thenReturn(Mono.empty());
+        Mockito.when(bookingService.updateBooking(any(), any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(reservationStore.save(any()))
+                .thenReturn(Mono.error(new ConflictException("modified concurrently")))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        StepVerifier.create(customerReservationService.update(reservationUpdate))
+                .assertNext(updated -> assertThat(updated.getArrivalDate()).isEqualTo(reservationUpdate.getArrivalDate()))
+                .verifyComplete();
+
+        Mockito.verify(bookingService, Mockito.times(2)).claimRebooking(any(), any());
+        Mockito.verify(bookingService).releaseBooking(booking);
+        Mockito.verify(bookingService, Mockito.times(1)).updateBooking(any(), any());
+        assertThat(meterRegistry.get("booking.version.conflicts").tags("operation", "update").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("booking.operations").tags("operation", "update", "outcome", "success").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotTouchBookingIndexGivenReservationWrittenBeforeItsNightsWereHeld() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(reservationStore.findById(reservationId))
+                .thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)))
+                .thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 2L)));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.just(Collections.emptyList()));
+        Mockito.when(bookingService.updateBooking(any(), any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        Mockito.when(reservationStore.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        StepVerifier.create(customerReservationService.update(updateOf(reservationId, null)))
+                .assertNext(updated -> assertThat(updated.getVersion()).isEqualTo(2L))
+                .verifyComplete();
+
+        Mockito.verify(bookingService, Mockito.times(1)).claimRebooking(any(), any());
+        Mockito.verify(bookingService, Mockito.times(1)).updateBooking(any(), any());
+        assertThat(meterRegistry.get("booking.version.conflicts").tags("operation", "update").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldThrowConflictExceptionGivenVersionConflictOnEveryRetry() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.just(Collections.singletonList(booking)));
+        Mockito.when(bookingService.releaseBooking(booking)).thenReturn(Mono.empty());
+        Mockito.when(reservationStore.save(any())).thenReturn(Mono.error(new ConflictException("modified concurrently")));
+
+        StepVerifier.create(customerReservationService.update(updateOf(reservationId, null)))
+                .expectError(ConflictException.class)
+                .verify();
+
+        Mockito.verify(bookingService, Mockito.times(4)).releaseBooking(booking);
+        Mockito.verify(bookingService, Mockito.never()).updateBooking(any(), any());
+
+        assertThat(meterRegistry.get("booking.version.conflicts").tags("operation", "update").counter().count()).isEqualTo(4);
+        assertThat(meterRegistry.get("booking.operations").tags("operation", "update", "outcome", "version_conflict").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLockNewNightsOnSiteOfReservationGivenUpdate() {
+        Long otherSiteId = Constants.DEFAULT_SITE_ID + 1;
+        Map<Long, BookingRepository> sites = new HashMap<>();
+        sites.put(Constants.DEFAULT_SITE_ID, new ConcurrentBookingRepository());
+        sites.put(otherSiteId, new ConcurrentBookingRepository());
+        ReservationMetrics reservationMetrics = new ReservationMetrics(meterRegistry);
+        ReservationLocks reservationLocks = new ReservationLocks(new BookingShards(sites), reservationMetrics, Optional.empty());
+        customerReservationService = new CustomerReservationService(bookingService, reservationStore, reservationLocks, reservationMetrics);
+        Long reservationId = new Random().nextLong();
+        CustomerReservation stored = storedReservation(reservationId, 1L);
+        stored.setSiteId(otherSiteId);
+        // holds only the last new night, which the reservation does not hold yet
+        CustomerReservation lastNewNight = CustomerReservation.builder()
+                .siteId(otherSiteId)
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(3), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+
+        Mockito.when(reservationStore.findById(reservationId)).thenReturn(Mono.just(stored));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.never());
+
+        Disposable holder = reservationLocks.onNights(Mono::never, lastNewNight).subscribe();
+        customerReservationService.update(updateOf(reservationId, null)).subscribe();
+        Mockito.verify(bookingService, Mockito.never()).claimRebooking(any(), any());
+        holder.dispose();
+
+        Mockito.verify(bookingService).claimRebooking(any(), Mockito.argThat(res -> otherSiteId.equals(res.getSiteId())));
+    }
+
+    @Test
+    public void shouldKeepPreviousNightsAndReleaseClaimsGivenFailedUpdateSave() {
+        Long reservationId = new Random().nextLong();
+        CustomerReservation stored = storedReservation(reservationId, 1L);
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.just(Collections.singletonList(booking)));
+        Mockito.when(bookingService.releaseBooking(booking)).thenReturn(Mono.empty());
+        Mockito.when(reservationStore.save(any())).thenReturn(Mono.error(new IllegalStateException("database down")));
+
+        StepVerifier.create(customerReservationService.update(updateOf(reservationId, null)))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        Mockito.verify(bookingService).claimRebooking(Mockito.argThat(previous -> reservationId.equals(previous.getId())
+                && previous.getArrivalDate().equals(stored.getArrivalDate())
+                && previous.getDepartureDate().equals(stored.getDepartureDate())), any());
+        Mockito.verify(bookingService).releaseBooking(booking);
+        Mockito.verify(bookingService, Mockito.never()).updateBooking(any(), any());
+    }
+
+    @Test
+    public void shouldMoveReservationGivenCallerLeftWhileUpdateWasPersisting() {
+        Long reservationId = new Random().nextLong();
+        MonoProcessor<CustomerReservation> write = MonoProcessor.create();
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.just(Collections.singletonList(booking)));
+        Mockito.when(reservationStore.save(any())).thenReturn(write);
+        Mockito.when(bookingService.updateBooking(any(), any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        customerReservationService.update(updateOf(reservationId, null)).subscribe().dispose();
+        Mockito.verify(bookingService, Mockito.never()).releaseBooking(any());
+        write.onNext(storedReservation(reservationId, 2L));
+
+        Mockito.verify(bookingService).updateBooking(any(), Mockito.eq(Collections.singletonList(booking)));
+        Mockito.verify(bookingService, Mockito.never()).releaseBooking(any());
+    }
+
+    @Test
+    public void shouldReportSaveErrorGivenClaimsCannotBeReleased() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)));
+        Mockito.when(bookingService.claimRebooking(any(), any())).thenReturn(Mono.just(Collections.singletonList(booking)));
+        Mockito.when(bookingService.releaseBooking(booking)).thenReturn(Mono.error(new ServiceUnavailableException("writer busy")));
+        Mockito.when(reservationStore.save(any())).thenReturn(Mono.error(new IllegalStateException("database down")));
+
+        StepVerifier.create(customerReservationService.update(updateOf(reservationId, null)))
+                .expectError(IllegalStateException.class)
+                .verify();
+    }
+
+    @Test
+    public void shouldThrowPreconditionFailedExceptionGivenReservationNoLongerAtExpectedVersion() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 2L)));
+
+        StepVerifier.create(customerReservationService.update(updateOf(reservationId, 1L)))
+                .expectError(PreconditionFailedException.class)
+                .verify();
+
+        Mockito.verify(bookingService, Mockito.never()).claimRebooking(any(), any());
+        Mockito.verify(reservationStore, Mockito.never()).save(any());
+        assertThat(meterRegistry.get("booking.operations").tags("operation", "update", "outcome", "precondition_failed").timer().count()).isEqualTo(1);
+    }
+
     @Test
     public void shouldThrowNotFoundExceptionOnCustomerReservationUpdateGivenCancelledReservation() {
         Long reservationId = new Random().nextLong();
@@ -161,7 +570,7 @@ public class CustomerReservationServiceTest {
                 .status(Status.COMPLETED)
                 .build();
 
-        Mockito.when(customerReservationRepository.findById(updateReservationRequest.getId())).thenReturn(Optional.empty());
+        Mockito.when(reservationStore.findById(updateReservationRequest.getId())).thenReturn(Mono.empty());
 
         Mono<CustomerReservation> reservation = customerReservationService.update(updateReservationRequest);
 
@@ -188,7 +597,7 @@ public class CustomerReservationServiceTest {
                 .status(Status.COMPLETED)
                 .build();
 
-        Mockito.when(customerReservationRepository.findById(updateReservationRequest.getId())).thenReturn(Optional.of(customerReservation));
+        Mockito.when(reservationStore.findById(updateReservationRequest.getId())).thenReturn(Mono.just(customerReservation));
         Mockito.when(customerReservation.getStatus()).thenReturn(Status.CANCELLED);
 
         Mono<CustomerReservation> reservation = customerReservationService.update(updateReservationRequest);
@@ -196,6 +605,8 @@ public class CustomerReservationServiceTest {
         StepVerifier.create(reservation)
                 .expectError(UnprocessableEntityException.class)
                 .verify();
+
+        assertThat(meterRegistry.get("booking.conflicts").tags("operation", "update", "reason", "already_cancelled").counter().count()).isEqualTo(1);
     }
 
     @Test
@@ -211,36 +622,59 @@ public class CustomerReservationServiceTest {
                 .status(Status.CANCELLED)
                 .build();
 
-        Mockito.when(customerReservationRepository.findById(reservationId)).thenReturn(Optional.of(customerReservation));
+        Mockito.when(reservationStore.findById(reservationId)).thenReturn(Mono.just(customerReservation));
         Mockito.when(customerReservation.getStatus()).thenReturn(Status.COMPLETED);
+        Mockito.when(customerReservation.getArrivalDate()).thenReturn(arrivalDate);
+        Mockito.when(customerReservation.getDepartureDate()).thenReturn(departureDate);
         Mockito.when(bookingService.cancelBooking(customerReservation)).thenReturn(Mono.just(customerReservation));
-        Mockito.when(customerReservationRepository.save(customerReservation)).thenReturn(expectedReservation);
+        Mockito.when(reservationStore.save(customerReservation)).thenReturn(Mono.just(expectedReservation));
 
         Mono<CustomerReservation> reservation = customerReservationService.cancel(reservationId);
 
         StepVerifier.create(reservation)
                 .expectNext(expectedReservation)
                 .verifyComplete();
+
+        assertThat(meterRegistry.get("booking.operations").tags("operation", "cancel", "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.find("booking.lock.wait").tags("lock", "reservation").timer()).isNull();
+        assertThat(meterRegistry.get("booking.lock.wait").tags("lock", "nights").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepNightsBookedGivenFailedCancelSave() {
+        Long reservationId = new Random().nextLong();
+
+        Mockito.when(reservationStore.findById(reservationId)).thenAnswer(invocation -> Mono.just(storedReservation(reservationId, 1L)));
+        Mockito.when(reservationStore.save(any())).thenReturn(Mono.error(new ConflictException("modified concurrently")));
+
+        StepVerifier.create(customerReservationService.cancel(reservationId))
+                .expectError(ConflictException.class)
+                .verify();
+
+        Mockito.verify(bookingService, Mockito.never()).cancelBooking(any());
     }
 
     @Test
     public void shouldThrowNotFoundExceptionOnCancelReservationGivenNotFoundReservation() {
         Long reservationId = new Random().nextLong();
 
-        Mockito.when(customerReservationRepository.findById(reservationId)).thenReturn(Optional.empty());
+        Mockito.when(reservationStore.findById(reservationId)).thenReturn(Mono.empty());
 
         Mono<CustomerReservation> reservation = customerReservationService.cancel(reservationId);
 
         StepVerifier.create(reservation)
                 .expectError(NotFoundException.class)
                 .verify();
+
+        assertThat(meterRegistry.get("booking.not.found").tags("operation", "cancel").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("booking.operations").tags("operation", "cancel", "outcome", "not_found").timer().count()).isEqualTo(1);
     }
 
     @Test
     public void shouldThrowUnprocessableEntityExceptionOnCancelReservationGivenCanceledReservation() {
         Long reservationId = new Random().nextLong();
 
-        Mockito.when(customerReservationRepository.findById(reservationId)).thenReturn(Optional.of(customerReservation));
+        Mockito.when(reservationStore.findById(reservationId)).thenReturn(Mono.just(customerReservation));
         Mockito.when(customerReservation.getStatus()).thenReturn(Status.CANCELLED);
 
         Mono<CustomerReservation> reservation = customerReservationService.cancel(reservationId);
@@ -249,4 +683,23 @@ public class CustomerReservationServiceTest {
                 .expectError(UnprocessableEntityException.class)
                 .verify();
     }
+
+    private static CustomerReservation storedReservation(Long reservationId, Long version) {
+        return CustomerReservation.builder()
+                .id(reservationId)
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(1), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(3), Constants.DEFAULT_CHECK_OUT_TIME))
+                .status(Status.COMPLETED)
+                .version(version)
+                .build();
+    }
+
+    private static CustomerReservation updateOf(Long reservationId, Long version) {
+        return CustomerReservation.builder()
+                .id(reservationId)
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(2), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(4), Constants.DEFAULT_CHECK_OUT_TIME))
+                .version(version)
+                .build();
+    }
 }
@@ -0,0 +1,105 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.exception.UnprocessableEntityException;
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.util.MutableClock;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyCacheTest {
+
+    private MutableClock clock;
+    private IdempotencyCache idempotencyCache;
+    private AtomicInteger attempts;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(LocalDate.of(2019, 7, 1));
+        idempotencyCache = new IdempotencyCache(2, Duration.ofHours(1), clock);
+        attempts = new AtomicInteger();
+    }
+
+    @Test
+    public void shouldReplayFirstOutcomeGivenSameKey() {
+        Supplier<Mono<CustomerReservation>> create = () -> Mono.fromSupplier(() -> reservation((long) attempts.incrementAndGet()));
+
+        StepVerifier.create(idempotencyCache.execute("key", "request", create))
+                .expectNextMatches(reservation -> reservation.getId() == 1L)
+                .verifyComplete();
+        StepVerifier.create(idempotencyCache.execute("key", "request", create))
+                .expectNextMatches(reservation -> reservation.getId() == 1L)
+                .verifyComplete();
+
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    public void shouldReplayConflictButRetryOtherFailures() {
+        Supplier<Mono<CustomerReservation>> conflicting = () -> Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.error(new UnprocessableEntityException(UnprocessableEntityException.Reason.UNAVAILABLE, "unavailable"));
+        });
+        Supplier<Mono<CustomerReservation>> failing = () -> Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.error(new IllegalStateException("database down"));
+        });
+
+        StepVerifier.create(idempotencyCache.execute("conflict", "request", conflicting)).verifyError(UnprocessableEntityException.class);
+        StepVerifier.create(idempotencyCache.execute("conflict", "request", conflicting)).verifyError(UnprocessableEntityException.class);
+        StepVerifier.create(idempotencyCache.execute("failure", "request", failing)).verifyError(IllegalStateException.class);
+        StepVerifier.create(idempotencyCache.execute("failure", "request", failing)).verifyError(IllegalStateException.class);
+
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    public void shouldRefuseKeyReusedForAnotherRequest() {
+        Supplier<Mono<CustomerReservation>> create = () -> Mono.fromSupplier(() -> reservation((long) attempts.incrementAndGet()));
+
+        idempotencyCache.execute("key", "request", create).block();
+
+        StepVerifier.create(idempotencyCache.execute("key", "another request", create))
+                .expectErrorMatches(error -> error instanceof UnprocessableEntityException
+                        && ((UnprocessableEntityException) error).getReason() == UnprocessableEntityException.Reason.IDEMPOTENCY_KEY_REUSED)
+                .verify();
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    public void shouldRunAgainOnceExpiredOrEvicted() {
+        Supplier<Mono<CustomerReservation>> create = () -> Mono.fromSupplier(() -> reservation((long) attempts.incrementAndGet()));
+
+        idempotencyCache.execute("first", "request", create).block();
+        idempotencyCache.execute("second", "request", create).block();
+        idempotencyCache.execute("third", "request", create).block();
+        assertThat(idempotencyCache.size()).isEqualTo(2);
+
+        idempotencyCache.execute("first", "request", create).block();
+        assertThat(attempts).hasValue(4);
+
+        clock.advanceDays(1);
+        idempotencyCache.execute("third", "request", create).block();
+        assertThat(attempts).hasValue(5);
+        assertThat(idempotencyCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRejectCacheWithoutRoomForAnyEntry() {
+        assertThatThrownBy(() -> new IdempotencyCache(0, Duration.ofHours(1), clock))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static CustomerReservation reservation(Long id) {
+        return CustomerReservation.builder().id(id).build();
+    }
+}
@@ -0,0 +1,87 @@
+package com.upgrade.bookingservice.service;
+
+import com.upgrade.bookingservice.model.CustomerReservation;
+import com.upgrade.bookingservice.repository.BookingShards;
+import com.upgrade.bookingservice.repository.ConcurrentBookingRepository;
+import com.upgrade.bookingservice.util.Constants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReservationLocksTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ReservationLocks reservationLocks;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        reservationLocks = new ReservationLocks(new BookingShards(Collections.singletonMap(Constants.DEFAULT_SITE_ID, new ConcurrentBookingRepository())),
+                new ReservationMetrics(meterRegistry), Optional.empty());
+    }
+
+    @Test
+    public void shouldRunWriterOfSameNightsOnceHolderIsDone() {
+        MonoProcessor<String> holder = MonoProcessor.create();
+        AtomicInteger waiterRuns = new AtomicInteger();
+
+        Mono<String> first = reservationLocks.onNights(() -> holder, reservation(1, 3)).cache();
+        first.subscribe();
+        Mono<String> second = reservationLocks.onNights(() -> Mono.fromSupplier(() -> "second" + waiterRuns.incrementAndGet()), reservation(2, 4)).cache();
+        second.subscribe();
+
+        assertThat(waiterRuns).hasValue(0);
+        holder.onNext("first");
+
+        StepVerifier.create(first).expectNext("first").verifyComplete();
+        StepVerifier.create(second).expectNext("second1").expectComplete().verify(Duration.ofSeconds(5));
+        assertThat(meterRegistry.get("booking.lock.wait").tags("lock", "nights").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldPassStripesOnGivenWaiterThatLeft() {
+        MonoProcessor<String> holder = MonoProcessor.create();
+        AtomicInteger leftRuns = new AtomicInteger();
+
+        reservationLocks.onNights(() -> holder, reservation(1, 3)).subscribe();
+        Disposable left = reservationLocks.onNights(() -> Mono.fromSupplier(leftRuns::incrementAndGet), reservation(1, 3)).subscribe();
+        Mono<String> last = reservationLocks.onNights(() -> Mono.just("last"), reservation(1, 3)).cache();
+        last.subscribe();
+        left.dispose();
+        holder.onNext("first");
+
+        StepVerifier.create(last).expectNext("last").expectComplete().verify(Duration.ofSeconds(5));
+        assertThat(leftRuns).hasValue(0);
+    }
+
+    @Test
+    public void shouldTakeNoReservationStripeGivenNightLocks() {
+        MonoProcessor<String> holder = MonoProcessor.create();
+
+        reservationLocks.onReservation(1L, () -> holder).subscribe();
+
+        StepVerifier.create(reservationLocks.onReservation(1L, () -> Mono.just("second"))).expectNext("second").verifyComplete();
+        assertThat(meterRegistry.find("booking.lock.wait").tags("lock", "reservation").timer()).isNull();
+    }
+
+    private static CustomerReservation reservation(int arrivalOffset, int departureOffset) {
+        return CustomerReservation.builder()
+                .arrivalDate(LocalDateTime.of(LocalDate.now().plusDays(arrivalOffset), Constants.DEFAULT_CHECK_IN_TIME))
+                .departureDate(LocalDateTime.of(LocalDate.now().plusDays(departureOffset), Constants.DEFAULT_CHECK_OUT_TIME))
+                .build();
+    }
+}
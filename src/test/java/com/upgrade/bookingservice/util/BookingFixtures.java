@@ -0,0 +1,27 @@
+package com.upgrade.bookingservice.util;
+
+import com.upgrade.bookingservice.model.Booking;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// the booking index tests run on a fixed day, set on a MutableClock, so that none of them straddles midnight
+public final class BookingFixtures {
+
+    public static final LocalDate TODAY = LocalDate.of(2019, 7, 1);
+
+    private BookingFixtures() {
+    }
+
+    public static Booking booking(Long reservationId, int arrivalOffset, int departureOffset) {
+        return Booking.builder()
+                .reservationId(reservationId)
+                .arrivalDate(night(arrivalOffset))
+                .departureDate(night(departureOffset))
+                .build();
+    }
+
+    public static LocalDateTime night(int offset) {
+        return LocalDateTime.of(TODAY.plusDays(offset), Constants.DEFAULT_CHECK_IN_TIME);
+    }
+}
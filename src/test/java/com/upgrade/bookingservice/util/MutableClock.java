@@ -0,0 +1,35 @@
+package com.upgrade.bookingservice.util;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+public class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    public MutableClock(LocalDate date) {
+        this.instant = date.atTime(Constants.DEFAULT_CHECK_IN_TIME).toInstant(ZoneOffset.UTC);
+    }
+
+    public void advanceDays(int days) {
+        instant = instant.plusSeconds(days * 86400L);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return this;
+    }
+
+    @Override
+    public Instant instant() {
+        return instant;
+    }
+}